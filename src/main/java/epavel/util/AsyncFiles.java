@@ -0,0 +1,239 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.CopyOption;
+import java.nio.file.FileSystemException;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+
+/**
+ * Asynchronous companion of {@link UncheckedFiles}. Reads and writes go through
+ * {@link AsynchronousFileChannel}, other operations run on an I/O executor.
+ * Futures complete exceptionally with {@link UncheckedIOException} wrapping the {@link IOException}.
+ * Methods without an executor use a shared pool of daemon threads.
+ *
+ * @author Pavel Erofeev
+ */
+public final class AsyncFiles {
+
+    /** Largest array the JVM reliably allocates. */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    static final ExecutorService IO = newIoExecutor();
+
+    private AsyncFiles() {}
+
+    private static ExecutorService newIoExecutor() {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "async-files-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static CompletableFuture<byte[]> readAllBytes(Path path) {
+        return readAllBytes(path, IO);
+    }
+
+    public static CompletableFuture<byte[]> readAllBytes(Path path, ExecutorService executor) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(path, Collections.singleton(StandardOpenOption.READ), executor);
+        } catch (IOException e) {
+            future.completeExceptionally(new UncheckedIOException(e));
+            return future;
+        }
+        try {
+            long size = channel.size();
+            if (size > MAX_BUFFER_SIZE)
+                throw new FileSystemException(path.toString(), null, "File is too large to read in an array");
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer n, Void attachment) {
+                    if (n >= 0 && buffer.hasRemaining()) {
+                        channel.read(buffer, buffer.position(), null, this);
+                        return;
+                    }
+                    close(channel, future);
+                    future.complete(Arrays.copyOf(buffer.array(), buffer.position()));
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    close(channel, future);
+                    fail(future, e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            close(channel, future);
+            fail(future, e);
+        }
+        return future;
+    }
+
+    public static CompletableFuture<Path> write(Path path, byte[] bytes, OpenOption... options) {
+        return write(path, bytes, IO, options);
+    }
+
+    /**
+     * Writes the bytes to the file. Without options the file is created or truncated,
+     * like {@link java.nio.file.Files#write(Path, byte[], OpenOption...)}.
+     */
+    public static CompletableFuture<Path> write(Path path, byte[] bytes, ExecutorService executor,
+                                                OpenOption... options) {
+        Set<OpenOption> opts = new HashSet<>(Arrays.asList(options));
+        if (opts.isEmpty()) {
+            opts.add(StandardOpenOption.CREATE);
+            opts.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        opts.add(StandardOpenOption.WRITE);
+        boolean append = opts.remove(StandardOpenOption.APPEND);
+
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(path, opts, executor);
+        } catch (IOException e) {
+            future.completeExceptionally(new UncheckedIOException(e));
+            return future;
+        }
+        try {
+            // asynchronous channels do not support APPEND: write from the current end
+            long start = append ? channel.size() : 0;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            channel.write(buffer, start, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer n, Void attachment) {
+                    if (buffer.hasRemaining()) {
+                        channel.write(buffer, start + buffer.position(), null, this);
+                        return;
+                    }
+                    close(channel, future);
+                    future.complete(path);
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    close(channel, future);
+                    fail(future, e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            close(channel, future);
+            fail(future, e);
+        }
+        return future;
+    }
+
+    public static CompletableFuture<Path> copy(Path source, Path target, CopyOption... options) {
+        return copy(source, target, IO, options);
+    }
+
+    public static CompletableFuture<Path> copy(Path source, Path target, ExecutorService executor,
+                                               CopyOption... options) {
+        return supply(executor, () -> UncheckedFiles.copy(source, target, options));
+    }
+
+    public static CompletableFuture<Long> size(Path path) {
+        return size(path, IO);
+    }
+
+    public static CompletableFuture<Long> size(Path path, ExecutorService executor) {
+        return supply(executor, () -> UncheckedFiles.size(path));
+    }
+
+    public static <A extends BasicFileAttributes> CompletableFuture<A> readAttributes(Path path, Class<A> type,
+                                                                                     LinkOption... options) {
+        return readAttributes(path, type, IO, options);
+    }
+
+    public static <A extends BasicFileAttributes> CompletableFuture<A> readAttributes(Path path, Class<A> type,
+                                                                                     ExecutorService executor,
+                                                                                     LinkOption... options) {
+        return supply(executor, () -> UncheckedFiles.readAttributes(path, type, options));
+    }
+
+    /**
+     * Runs the operation on the executor completing the future by hand: unlike
+     * {@link CompletableFuture#supplyAsync} failures are not wrapped in a {@link CompletionException}.
+     */
+    private static <T> CompletableFuture<T> supply(ExecutorService executor, Supplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(operation.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static void fail(CompletableFuture<?> future, Throwable e) {
+        future.completeExceptionally(e instanceof IOException ? new UncheckedIOException((IOException) e) : e);
+    }
+
+    private static void close(AsynchronousFileChannel channel, CompletableFuture<?> future) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            fail(future, e);
+        }
+    }
+}
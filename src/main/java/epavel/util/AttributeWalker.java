@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static epavel.util.T2.T2;
+
+
+/**
+ * Depth-first iterator over a file tree, in the order of {@link Files#walk}, that returns
+ * every path with the attributes read during the traversal.
+ *
+ * @author Pavel Erofeev
+ */
+final class AttributeWalker implements Iterator<T2<Path, BasicFileAttributes>>, Closeable {
+
+    private final int maxDepth;
+    private final boolean followLinks;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private T2<Path, BasicFileAttributes> next;
+    /** Directory returned last, opened on the next call to keep the walk lazy. */
+    private Frame toOpen;
+
+
+    AttributeWalker(Path start, int maxDepth, FileVisitOption... options) throws IOException {
+        if (maxDepth < 0)
+            throw new IllegalArgumentException("maxDepth is negative");
+        this.maxDepth = maxDepth;
+        this.followLinks = Arrays.asList(options).contains(FileVisitOption.FOLLOW_LINKS);
+        BasicFileAttributes attrs = readAttributes(start);
+        next = T2(start, attrs);
+        if (attrs.isDirectory() && maxDepth > 0)
+            toOpen = new Frame(start, attrs, 0, null);
+    }
+
+    private BasicFileAttributes readAttributes(Path path) throws IOException {
+        return followLinks
+                ? ParallelTree.readAttributes(path)
+                : Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = fetch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T2<Path, BasicFileAttributes> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        T2<Path, BasicFileAttributes> result = next;
+        next = null;
+        return result;
+    }
+
+    private T2<Path, BasicFileAttributes> fetch() throws IOException {
+        if (toOpen != null) {
+            Frame frame = toOpen;
+            toOpen = null;
+            frame.open();
+            stack.push(frame);
+        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            Path child;
+            try {
+                if (!frame.entries.hasNext()) {
+                    stack.pop().close();
+                    continue;
+                }
+                child = frame.entries.next();
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+            BasicFileAttributes attrs = readAttributes(child);
+            if (attrs.isDirectory()) {
+                if (followLinks && ParallelTree.Ancestor.isLoop(child, attrs, frame.ancestor))
+                    throw new FileSystemLoopException(child.toString());
+                if (frame.depth + 1 < maxDepth)
+                    toOpen = new Frame(child, attrs, frame.depth + 1, frame.ancestor);
+            }
+            return T2(child, attrs);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        toOpen = null;
+        IOException error = null;
+        while (!stack.isEmpty()) {
+            try {
+                stack.pop().close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null)
+            throw new UncheckedIOException(error);
+    }
+
+
+    private static final class Frame {
+        final Path dir;
+        final int depth;
+        final ParallelTree.Ancestor ancestor;
+        DirectoryStream<Path> stream;
+        Iterator<Path> entries;
+
+        Frame(Path dir, BasicFileAttributes attrs, int depth, ParallelTree.Ancestor parent) {
+            this.dir = dir;
+            this.depth = depth;
+            this.ancestor = new ParallelTree.Ancestor(dir, attrs, parent);
+        }
+
+        void open() throws IOException {
+            stream = Files.newDirectoryStream(dir);
+            entries = stream.iterator();
+        }
+
+        void close() throws IOException {
+            stream.close();
+        }
+    }
+}
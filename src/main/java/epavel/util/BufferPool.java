@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Pool of direct buffers grouped by capacity. Keeps at most {@code maxPerCapacity}
+ * idle buffers of each capacity, the rest are left to the garbage collector.
+ *
+ * @author Pavel Erofeev
+ */
+final class BufferPool {
+
+    static final BufferPool SHARED = new BufferPool(16);
+
+    private final int maxPerCapacity;
+    private final ConcurrentMap<Integer, BlockingQueue<ByteBuffer>> idle = new ConcurrentHashMap<>();
+
+
+    BufferPool(int maxPerCapacity) {
+        this.maxPerCapacity = maxPerCapacity;
+    }
+
+    /** Returns a cleared buffer of the given capacity. */
+    ByteBuffer acquire(int capacity) {
+        BlockingQueue<ByteBuffer> queue = idle.get(capacity);
+        ByteBuffer buffer = queue == null ? null : queue.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(capacity);
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Returns the buffer to the pool, it must not be used afterwards. */
+    void release(ByteBuffer buffer) {
+        idle.computeIfAbsent(buffer.capacity(), k -> new ArrayBlockingQueue<>(maxPerCapacity)).offer(buffer);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Walks a file tree listing up to {@code concurrency} directories at the same time,
+ * which pays off on file systems with high latency per call. Uses virtual threads
+ * when the runtime has them, a pool of {@code concurrency} threads otherwise.
+ * Matching follows {@link java.nio.file.Files#find}: the start is included, the matcher
+ * sees every entry with its attributes, links are followed with {@link FileVisitOption#FOLLOW_LINKS}.
+ * Entries come in no particular order.
+ *
+ * @author Pavel Erofeev
+ */
+public final class ConcurrentWalker {
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final Object END = new Object();
+    private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+    private ConcurrentWalker() {}
+
+    private static Method virtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    static ExecutorService newExecutor(int concurrency) {
+        if (VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // fall back to platform threads
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "concurrent-walker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns all entries of the tree.
+     *
+     * @see #find(Path, int, BiPredicate, int, FileVisitOption...)
+     */
+    public static Stream<Path> walk(Path start, int maxDepth, int concurrency, FileVisitOption... options) {
+        return find(start, maxDepth, (path, attrs) -> true, concurrency, options);
+    }
+
+    /**
+     * Returns entries of the tree accepted by the matcher. The stream should be closed
+     * when not consumed to the end, this stops the walk.
+     */
+    public static Stream<Path> find(Path start, int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher,
+                                    int concurrency, FileVisitOption... options) {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        AtomicBoolean closed = new AtomicBoolean();
+        Walk walk = new Walk(maxDepth, matcher, concurrency, options,
+                path -> put(queue, path, closed), () -> put(queue, END, closed));
+        walk.start(start);
+        Iterator<Path> iterator = new Iterator<Path>() {
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        walk.cancel();
+                        throw new IllegalStateException(e);
+                    }
+                }
+                if (next == END)
+                    walk.rethrow();
+                return next != END;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Path path = (Path) next;
+                next = null;
+                return path;
+            }
+        };
+        Spliterator<Path> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            closed.set(true);
+            walk.cancel();
+            queue.clear();
+        });
+    }
+
+    /**
+     * Passes entries of the tree accepted by the matcher to the action, which is called
+     * concurrently from the walking threads. Returns when the walk is finished.
+     */
+    public static void forEach(Path start, int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher,
+                               int concurrency, Consumer<? super Path> action, FileVisitOption... options) {
+        CountDownLatch done = new CountDownLatch(1);
+        Walk walk = new Walk(maxDepth, matcher, concurrency, options, action, done::countDown);
+        walk.start(start);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            walk.cancel();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        walk.rethrow();
+    }
+
+    /** Waits for space in the queue until the stream is closed. */
+    private static void put(BlockingQueue<Object> queue, Object element, AtomicBoolean closed) {
+        try {
+            while (!closed.get()) {
+                if (queue.offer(element, 100, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static final class Walk {
+        private final int maxDepth;
+        private final BiPredicate<Path, BasicFileAttributes> matcher;
+        private final Consumer<? super Path> sink;
+        private final Runnable onEnd;
+        private final boolean followLinks;
+        private final LinkOption[] linkOptions;
+        private final ExecutorService executor;
+        private final Semaphore permits;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        private volatile boolean cancelled;
+
+        Walk(int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher, int concurrency,
+             FileVisitOption[] options, Consumer<? super Path> sink, Runnable onEnd) {
+            this.maxDepth = maxDepth;
+            this.matcher = matcher;
+            this.sink = sink;
+            this.onEnd = onEnd;
+            this.followLinks = Arrays.asList(options).contains(FileVisitOption.FOLLOW_LINKS);
+            this.linkOptions = followLinks ? new LinkOption[0] : new LinkOption[] {LinkOption.NOFOLLOW_LINKS};
+            this.executor = newExecutor(concurrency);
+            this.permits = new Semaphore(concurrency);
+        }
+
+        void start(Path start) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(start, BasicFileAttributes.class, linkOptions);
+            } catch (IOException e) {
+                executor.shutdown();
+                throw new UncheckedIOException(e);
+            }
+            pending.incrementAndGet();
+            visit(start, attrs, 0, null);
+            finished();
+        }
+
+        private void visit(Path path, BasicFileAttributes attrs, int depth, ParallelTree.Ancestor parent) {
+            if (cancelled)
+                return;
+            if (matcher.test(path, attrs))
+                sink.accept(path);
+            if (attrs.isDirectory() && depth < maxDepth)
+                submit(() -> list(path, attrs, depth, parent));
+        }
+
+        private void submit(Runnable task) {
+            pending.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        fail(e);
+                    } finally {
+                        finished();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // cancelled
+                finished();
+            }
+        }
+
+        private void list(Path dir, BasicFileAttributes attrs, int depth, ParallelTree.Ancestor parent) {
+            if (cancelled)
+                return;
+            permits.acquireUninterruptibly();
+            try {
+                if (followLinks && ParallelTree.Ancestor.isLoop(dir, attrs, parent))
+                    throw new FileSystemLoopException(dir.toString());
+                ParallelTree.Ancestor self = followLinks ? new ParallelTree.Ancestor(dir, attrs, parent) : null;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path child : stream) {
+                        if (cancelled)
+                            return;
+                        BasicFileAttributes childAttrs = followLinks
+                                ? ParallelTree.readAttributes(child)
+                                : Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        visit(child, childAttrs, depth + 1, self);
+                    }
+                }
+            } catch (IOException e) {
+                fail(new UncheckedIOException(e));
+            } finally {
+                permits.release();
+            }
+        }
+
+        private void fail(RuntimeException e) {
+            error.compareAndSet(null, e);
+            cancelled = true;
+        }
+
+        private void finished() {
+            if (pending.decrementAndGet() == 0) {
+                executor.shutdown();
+                onEnd.run();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            executor.shutdownNow();
+        }
+
+        void rethrow() {
+            RuntimeException e = error.get();
+            if (e != null)
+                throw e;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+
+/**
+ * Copies a single regular file during the {@link FileUtils} tree copy.
+ * Implementations must be thread safe to be used by the parallel copy.
+ *
+ * @author Pavel Erofeev
+ */
+@FunctionalInterface
+public interface CopyStrategy {
+
+    /** Copies with {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}. */
+    CopyStrategy DEFAULT = (source, target, attrs) -> {
+        Files.copy(source, target);
+        return attrs.size();
+    };
+
+    /**
+     * Copies {@code source} to a not yet existing {@code target}.
+     *
+     * @param attrs attributes of the source file
+     * @return number of bytes copied
+     */
+    long copy(Path source, Path target, BasicFileAttributes attrs) throws IOException;
+
+    /**
+     * Whether {@code target}, just written by {@link #copy} on the current thread, is a link to
+     * another file rather than a copy, so that changing its attributes would change that file too.
+     */
+    default boolean linked(Path target) {
+        return false;
+    }
+
+    /**
+     * Copies files of at least {@code threshold} bytes with {@link java.nio.channels.FileChannel#transferTo},
+     * smaller files with {@link #DEFAULT}.
+     */
+    static TransferCopyStrategy transferAbove(long threshold) {
+        return new TransferCopyStrategy(threshold);
+    }
+
+    /**
+     * Hard links files byte-identical to a file of the {@code reference} tree,
+     * copies the others with the {@code fallback} strategy.
+     */
+    static DeduplicatingCopyStrategy deduplicating(Path reference, CopyStrategy fallback) {
+        return new DeduplicatingCopyStrategy(reference, fallback);
+    }
+
+    /**
+     * Keeps holes of sparse files: blocks of {@code blockSize} bytes containing only zeros
+     * are skipped instead of written. The block size should be a multiple of the file system block.
+     */
+    static SparseCopyStrategy sparse(int blockSize) {
+        return new SparseCopyStrategy(blockSize);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Creates hard links to byte-identical files of a reference tree instead of copying.
+ * Files are compared by size first and then by SHA-256 of their content; reference files
+ * are hashed lazily, only when a source file of the same size shows up.
+ * Files without a match are copied with the fallback strategy.
+ *
+ * @author Pavel Erofeev
+ */
+public final class DeduplicatingCopyStrategy implements CopyStrategy {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> buffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Path reference;
+    private final CopyStrategy fallback;
+    private volatile Map<Long, List<Path>> bySize;
+    private final Map<Long, Map<ByteBuffer, Path>> byHash = new ConcurrentHashMap<>();
+    private final LongAdder linkedFiles = new LongAdder();
+    private final LongAdder linkedBytes = new LongAdder();
+    /** Target of the last copy on the thread if it was linked. */
+    private final ThreadLocal<Path> lastLinked = new ThreadLocal<>();
+
+
+    DeduplicatingCopyStrategy(Path reference, CopyStrategy fallback) {
+        this.reference = reference;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public long copy(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+        lastLinked.remove();
+        long size = attrs.size();
+        List<Path> candidates = index().get(size);
+        if (candidates != null) {
+            Path existing = hashes(size, candidates).get(hash(source));
+            if (existing != null) {
+                try {
+                    UncheckedFiles.createLink(target, existing);
+                    linkedFiles.increment();
+                    linkedBytes.add(size);
+                    lastLinked.set(target);
+                    return size;
+                } catch (UncheckedIOException e) {
+                    IOException cause = e.getCause();
+                    // links across file stores fail with a plain FileSystemException (EXDEV): copy
+                    if (!(cause instanceof FileSystemException) || cause instanceof FileAlreadyExistsException)
+                        throw cause;
+                } catch (UnsupportedOperationException | ProviderMismatchException e) {
+                    // no hard links between these paths: copy
+                }
+            }
+        }
+        return fallback.copy(source, target, attrs);
+    }
+
+    /** True if the target is a link into the reference tree, which must not be modified. */
+    @Override
+    public boolean linked(Path target) {
+        return target.equals(lastLinked.get()) || fallback.linked(target);
+    }
+
+    private Map<Long, List<Path>> index() throws IOException {
+        Map<Long, List<Path>> index = bySize;
+        if (index == null) {
+            synchronized (this) {
+                index = bySize;
+                if (index == null)
+                    bySize = index = scan(reference);
+            }
+        }
+        return index;
+    }
+
+    private static Map<Long, List<Path>> scan(Path reference) throws IOException {
+        Map<Long, List<Path>> index = new HashMap<>();
+        if (!Files.isDirectory(reference))
+            return index;
+        Files.walkFileTree(reference, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile())
+                    index.computeIfAbsent(attrs.size(), k -> new ArrayList<>()).add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return Collections.unmodifiableMap(index);
+    }
+
+    private Map<ByteBuffer, Path> hashes(long size, List<Path> candidates) throws IOException {
+        Map<ByteBuffer, Path> hashes = byHash.get(size);
+        if (hashes != null)
+            return hashes;
+        // hashed outside of the map: racing threads may both hash, but never block each other
+        hashes = new HashMap<>();
+        for (Path candidate : candidates)
+            hashes.putIfAbsent(hash(candidate), candidate);
+        Map<ByteBuffer, Path> existing = byHash.putIfAbsent(size, hashes);
+        return existing != null ? existing : hashes;
+    }
+
+    private static ByteBuffer hash(Path file) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        MessageDigest digest = digests.get();
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    public Path reference() {
+        return reference;
+    }
+
+    /** Number of files linked instead of copied. */
+    public long linkedFiles() {
+        return linkedFiles.sum();
+    }
+
+    /** Number of bytes not copied thanks to links. */
+    public long linkedBytes() {
+        return linkedBytes.sum();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Lists a directory in fixed-size pages, holding at most two pages in memory: the one
+ * returned and the next one, read in the background while the caller processes it.
+ * Every page carries a cursor, the number of entries listed so far, from which a later
+ * {@link #open(Path, int, long)} resumes. Resuming is exact as long as the directory
+ * is not modified in between, since the order of entries is that of the file system.
+ *
+ * @author Pavel Erofeev
+ */
+public final class DirectoryPages implements Closeable {
+
+    public static final class Page {
+        private final List<Path> entries;
+        private final long cursor;
+        private final boolean last;
+
+        Page(List<Path> entries, long cursor, boolean last) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.cursor = cursor;
+            this.last = last;
+        }
+
+        public List<Path> entries() {
+            return entries;
+        }
+
+        /** Position after this page, to resume listing from. */
+        public long cursor() {
+            return cursor;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+
+        public String toString() {
+            return "Page{" + entries.size() + " entries,cursor=" + cursor + (last ? ",last}" : "}");
+        }
+    }
+
+
+    private final DirectoryStream<Path> stream;
+    private final Iterator<Path> iterator;
+    private final int pageSize;
+    private final Executor executor;
+    private long position;
+    private boolean last;
+    private CompletableFuture<Page> prefetched;
+
+
+    private DirectoryPages(DirectoryStream<Path> stream, int pageSize, long cursor, Executor executor) {
+        this.stream = stream;
+        this.iterator = stream.iterator();
+        this.pageSize = pageSize;
+        this.executor = executor;
+        while (position < cursor && iterator.hasNext()) {
+            iterator.next();
+            position++;
+        }
+    }
+
+    public static DirectoryPages open(Path dir, int pageSize) {
+        return open(dir, pageSize, 0);
+    }
+
+    public static DirectoryPages open(Path dir, int pageSize, long cursor) {
+        return open(dir, pageSize, cursor, AsyncFiles.IO);
+    }
+
+    /**
+     * @param cursor   {@link Page#cursor()} of a previous listing, 0 to start from the beginning
+     * @param executor reads next pages in the background
+     */
+    public static DirectoryPages open(Path dir, int pageSize, long cursor, Executor executor) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize: " + pageSize);
+        DirectoryStream<Path> stream = UncheckedFiles.newDirectoryStream(dir);
+        try {
+            return new DirectoryPages(stream, pageSize, cursor, executor);
+        } catch (DirectoryIteratorException e) {
+            closeQuietly(stream, e);
+            throw new UncheckedIOException(e.getCause());
+        } catch (RuntimeException e) {
+            closeQuietly(stream, e);
+            throw e;
+        }
+    }
+
+    public synchronized boolean hasNext() {
+        return !last;
+    }
+
+    /** Returns the next page, the last one may be empty. */
+    public synchronized Page next() {
+        if (last)
+            throw new NoSuchElementException();
+        Page page;
+        if (prefetched != null) {
+            try {
+                page = prefetched.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw e;
+            } finally {
+                prefetched = null;
+            }
+        } else {
+            page = read();
+        }
+        last = page.isLast();
+        if (!last)
+            prefetched = CompletableFuture.supplyAsync(this::read, executor);
+        return page;
+    }
+
+    /** Runs on one thread at a time: either the caller or the prefetching task. */
+    private Page read() {
+        List<Path> entries = new ArrayList<>(pageSize);
+        try {
+            while (entries.size() < pageSize && iterator.hasNext())
+                entries.add(iterator.next());
+            position += entries.size();
+            return new Page(entries, position, !iterator.hasNext());
+        } catch (DirectoryIteratorException e) {
+            throw new UncheckedIOException(e.getCause());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        last = true;
+        if (prefetched != null) {
+            // closing under a running read is not allowed by every provider
+            prefetched.handle((page, e) -> null).join();
+            prefetched = null;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable, Throwable cause) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Caches basic attributes of files, following links like {@link UncheckedFiles}.
+ * Entries live at most {@code ttl}, the least recently used ones are evicted when the
+ * cache is full. Parent directories of cached paths are watched with a {@link WatchService},
+ * so changes usually invalidate entries well before the TTL; the TTL bounds staleness
+ * where watching is not supported or events are late. A directory stays watched only
+ * while the cache holds entries in it. Missing files are cached too.
+ * Must be closed to stop watching.
+ *
+ * @author Pavel Erofeev
+ */
+public final class FileAttributeCache implements Closeable {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Path, Cached> entries;
+    private final Map<FileSystem, WatchService> watchers = new HashMap<>();
+    /** Directories holding cached entries, by path and by watch key. */
+    private final Map<Path, Dir> dirs = new HashMap<>();
+    private final Map<WatchKey, Dir> watchedDirs = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean closed;
+
+
+    /**
+     * @param maxSize maximum number of cached paths
+     * @param ttl     maximum time an entry is served from the cache
+     */
+    public FileAttributeCache(int maxSize, long ttl, TimeUnit unit) {
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<Path, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Cached> eldest) {
+                if (size() <= FileAttributeCache.this.maxSize)
+                    return false;
+                released(eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    public boolean exists(Path path) {
+        return get(path).attrs != null;
+    }
+
+    public boolean isDirectory(Path path) {
+        BasicFileAttributes attrs = get(path).attrs;
+        return attrs != null && attrs.isDirectory();
+    }
+
+    public boolean isRegularFile(Path path) {
+        BasicFileAttributes attrs = get(path).attrs;
+        return attrs != null && attrs.isRegularFile();
+    }
+
+    public long size(Path path) {
+        return readAttributes(path).size();
+    }
+
+    public BasicFileAttributes readAttributes(Path path) {
+        BasicFileAttributes attrs = get(path).attrs;
+        if (attrs == null)
+            throw new UncheckedIOException(new NoSuchFileException(path.toString()));
+        return attrs;
+    }
+
+    /**
+     * Serves the entry or reads the attributes. The parent directory is watched before the
+     * read, and the read is cached only if no change in the directory was seen meanwhile.
+     */
+    private Cached get(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        Path parent = key.getParent();
+        long now = System.nanoTime();
+        Dir dir = null;
+        long generation = 0;
+        synchronized (this) {
+            Cached entry = entries.get(key);
+            if (entry != null && now - entry.loaded < ttlNanos) {
+                hits.increment();
+                return entry;
+            }
+            if (!closed && parent != null) {
+                dir = open(parent);
+                dir.readers++;
+                generation = dir.generation;
+            }
+        }
+        misses.increment();
+        try {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(key, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                attrs = null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Cached entry = new Cached(attrs, now);
+            synchronized (this) {
+                boolean unchanged = parent == null || dirs.get(parent) == dir && dir.generation == generation;
+                if (!closed && unchanged) {
+                    // indexed before the put, which may evict a sibling
+                    if (dir != null)
+                        dir.entries.add(key);
+                    entries.put(key, entry);
+                }
+            }
+            return entry;
+        } finally {
+            if (dir != null) {
+                synchronized (this) {
+                    dir.readers--;
+                    closeIfUnused(dir);
+                }
+            }
+        }
+    }
+
+    public synchronized void invalidate(Path path) {
+        remove(path.toAbsolutePath().normalize());
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        for (Dir dir : dirs.values()) {
+            if (dir.key != null)
+                dir.key.cancel();
+        }
+        dirs.clear();
+        watchedDirs.clear();
+    }
+
+    /** Drops the cached entries of the directory, found through its index rather than a scan. */
+    private void invalidateChildren(Path path) {
+        Dir dir = dirs.get(path);
+        if (dir == null)
+            return;
+        dir.generation++;
+        for (Path child : dir.entries)
+            entries.remove(child);
+        dir.entries.clear();
+        closeIfUnused(dir);
+    }
+
+    /** Drops the entry, and any read of it in progress, see {@link #get(Path)}. */
+    private void remove(Path path) {
+        Dir dir = dirs.get(path.getParent());
+        if (dir != null)
+            dir.generation++;
+        if (entries.remove(path) != null)
+            released(path);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Unindexes a removed entry; the last entry of a directory stops watching it. */
+    private void released(Path path) {
+        Dir dir = dirs.get(path.getParent());
+        if (dir != null) {
+            dir.entries.remove(path);
+            closeIfUnused(dir);
+        }
+    }
+
+    /**
+     * Returns the directory, registering it with the watcher of its file system if it is not
+     * watched yet.
+     */
+    private Dir open(Path path) {
+        Dir dir = dirs.get(path);
+        if (dir == null) {
+            dir = new Dir(path);
+            dirs.put(path, dir);
+        }
+        if (dir.key == null) {
+            try {
+                WatchService watcher = watchers.get(path.getFileSystem());
+                if (watcher == null) {
+                    watcher = path.getFileSystem().newWatchService();
+                    watchers.put(path.getFileSystem(), watcher);
+                    startWatching(watcher);
+                }
+                dir.key = path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(dir.key, dir);
+            } catch (IOException | UnsupportedOperationException e) {
+                // not watchable: entries expire by TTL
+            }
+        }
+        return dir;
+    }
+
+    private void closeIfUnused(Dir dir) {
+        if (!dir.entries.isEmpty() || dir.readers > 0 || dirs.get(dir.path) != dir)
+            return;
+        dirs.remove(dir.path);
+        if (dir.key != null) {
+            watchedDirs.remove(dir.key);
+            dir.key.cancel();
+        }
+    }
+
+    synchronized int watchedDirectories() {
+        return watchedDirs.size();
+    }
+
+    private void startWatching(WatchService watcher) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (!closed)
+                    process(watcher.take());
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                // closed
+            }
+        }, "file-attribute-cache-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void process(WatchKey key) {
+        Dir dir;
+        synchronized (this) {
+            dir = watchedDirs.get(key);
+        }
+        if (dir == null)
+            return;
+        List<Path> changed = new ArrayList<>();
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                overflow = true;
+            else
+                changed.add(dir.path.resolve(event.context().toString()));
+        }
+        synchronized (this) {
+            if (overflow) {
+                invalidateChildren(dir.path);
+            } else {
+                for (Path path : changed) {
+                    remove(path);
+                    invalidateChildren(path);
+                }
+            }
+            // the directory itself changed too
+            remove(dir.path);
+            if (!key.reset() && dir.key == key) {
+                watchedDirs.remove(key);
+                dir.key = null;
+                invalidateChildren(dir.path);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        List<WatchService> services;
+        synchronized (this) {
+            closed = true;
+            entries.clear();
+            services = new ArrayList<>(watchers.values());
+            watchers.clear();
+            dirs.clear();
+            watchedDirs.clear();
+        }
+        IOException error = null;
+        for (WatchService watcher : services) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null)
+            throw new UncheckedIOException(error);
+    }
+
+    public String toString() {
+        return "{size=" + size() + ",hits=" + hits() + ",misses=" + misses() + '}';
+    }
+
+
+    private static final class Dir {
+        final Path path;
+        /** Cached paths in the directory. */
+        final Set<Path> entries = new HashSet<>();
+        /** Null if the directory could not be watched. */
+        WatchKey key;
+        /** Reads in progress, which keep the directory watched. */
+        int readers;
+        /** Bumped on every change seen in the directory. */
+        long generation;
+
+        Dir(Path path) {
+            this.path = path;
+        }
+    }
+
+    private static final class Cached {
+        /** Null if the file does not exist. */
+        final BasicFileAttributes attrs;
+        final long loaded;
+
+        Cached(BasicFileAttributes attrs, long loaded) {
+            this.attrs = attrs;
+            this.loaded = loaded;
+        }
+    }
+}
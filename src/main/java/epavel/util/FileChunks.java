@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+
+/**
+ * Reads files in fixed-size chunks through pooled direct buffers, so memory use does not
+ * depend on the file size. Every chunk but the last is exactly {@code chunkSize} bytes.
+ *
+ * @author Pavel Erofeev
+ */
+public final class FileChunks {
+
+    /** Means no limit on the file size. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private FileChunks() {}
+
+    /**
+     * Passes chunks of the file to the action. The buffer is reused: it is valid only during
+     * the call and must not be kept.
+     */
+    public static void forEach(Path path, int chunkSize, Consumer<? super ByteBuffer> action) {
+        forEach(path, chunkSize, UNLIMITED, action);
+    }
+
+    /**
+     * Passes chunks of the file to the action, failing before reading anything
+     * if the file is larger than {@code maxSize} bytes.
+     *
+     * @see #forEach(Path, int, Consumer)
+     */
+    public static void forEach(Path path, int chunkSize, long maxSize, Consumer<? super ByteBuffer> action) {
+        try (ChunkIterator chunks = iterator(path, chunkSize, maxSize)) {
+            while (chunks.hasNext())
+                action.accept(chunks.next());
+        }
+    }
+
+    /**
+     * Returns an iterator over chunks of the file. The returned buffer is valid until the next
+     * call of {@link ChunkIterator#next()}. The iterator must be closed to close the file
+     * and return the buffer to the pool.
+     */
+    public static ChunkIterator iterator(Path path, int chunkSize) {
+        return iterator(path, chunkSize, UNLIMITED);
+    }
+
+    /**
+     * Returns an iterator over chunks of the file, failing before reading anything
+     * if the file is larger than {@code maxSize} bytes.
+     *
+     * @see #iterator(Path, int)
+     */
+    public static ChunkIterator iterator(Path path, int chunkSize, long maxSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                checkSize(path, channel.size(), maxSize);
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    e.addSuppressed(ex);
+                }
+                throw e;
+            }
+            return new ChunkIterator(channel, BufferPool.SHARED.acquire(chunkSize));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void checkSize(Path path, long size, long maxSize) throws FileSystemException {
+        if (size > maxSize)
+            throw new FileSystemException(path.toString(), null, "Size " + size + " exceeds limit " + maxSize);
+    }
+
+
+    public static final class ChunkIterator implements Iterator<ByteBuffer>, Closeable {
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        private boolean ready;
+        private boolean eof;
+
+        ChunkIterator(FileChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (ready)
+                return true;
+            if (eof || buffer == null)
+                return false;
+            buffer.clear();
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip();
+            ready = buffer.hasRemaining();
+            return ready;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ready = false;
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            if (buffer != null) {
+                BufferPool.SHARED.release(buffer);
+                buffer = null;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -26,14 +26,29 @@ package epavel.util;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 
 /**
@@ -41,21 +56,99 @@ import java.util.EnumSet;
  */
 public final class FileUtils {
 
+    private static final BooleanSupplier NOT_CANCELLED = () -> false;
+
+    private static final BiPredicate<Path, BasicFileAttributes> ALL = (path, attrs) -> true;
+
     private FileUtils() {}
 
     public static void deleteDirectories(Path path) {
+        deleteDirectories(path, TreeListener.NONE);
+    }
+
+    /**
+     * Deletes the tree reporting progress to the listener.
+     */
+    public static void deleteDirectories(Path path, TreeListener listener) {
+        deleteDirectories(path, ALL, Integer.MAX_VALUE, listener, NOT_CANCELLED);
+    }
+
+    /**
+     * Deletes entries of the tree accepted by the filter. Subtrees of rejected directories
+     * are not walked at all, and nothing deeper than {@code maxDepth} is visited.
+     * Directories are deleted only if they end up empty.
+     *
+     * @param filter applied to every entry below {@code path}
+     */
+    public static void deleteDirectories(Path path, BiPredicate<Path, BasicFileAttributes> filter, int maxDepth) {
+        deleteDirectories(path, filter, maxDepth, TreeListener.NONE, NOT_CANCELLED);
+    }
+
+    private static void deleteDirectories(Path path, BiPredicate<Path, BasicFileAttributes> filter, int maxDepth,
+                                          TreeListener listener, BooleanSupplier cancelled) {
+        boolean filtered = filter != ALL || maxDepth != Integer.MAX_VALUE;
         try {
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            Files.walkFileTree(path, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (cancelled.getAsBoolean())
+                        return FileVisitResult.TERMINATE;
+                    if (!dir.equals(path) && !filter.test(dir, attrs))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    return FileVisitResult.CONTINUE;
+                }
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.delete(file);
+                    if (cancelled.getAsBoolean())
+                        return FileVisitResult.TERMINATE;
+                    if (!file.equals(path) && !filter.test(file, attrs))
+                        return FileVisitResult.CONTINUE;
+                    if (attrs.isDirectory()) {
+                        // a directory at the depth limit
+                        deleteDirectory(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        listener.onError(file, e);
+                        throw e;
+                    }
+                    listener.onFile(file, attrs.size(), System.nanoTime() - start);
                     return FileVisitResult.CONTINUE;
                 }
                 @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    listener.onError(file, exc);
+                    throw exc;
+                }
+                @Override
                 public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    Files.delete(dir);
+                    if (cancelled.getAsBoolean())
+                        return FileVisitResult.TERMINATE;
+                    if (exc != null) {
+                        listener.onError(dir, exc);
+                        throw exc;
+                    }
+                    deleteDirectory(dir);
                     return FileVisitResult.CONTINUE;
                 }
+                private void deleteDirectory(Path dir) throws IOException {
+                    try {
+                        Files.delete(dir);
+                    } catch (DirectoryNotEmptyException e) {
+                        // keeps what the filter or the depth excluded
+                        if (filtered)
+                            return;
+                        listener.onError(dir, e);
+                        throw e;
+                    } catch (IOException e) {
+                        listener.onError(dir, e);
+                        throw e;
+                    }
+                    listener.onDirectory(dir);
+                }
             });
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -63,24 +156,170 @@ public final class FileUtils {
     }
 
     public static void copyDirectories(Path source, Path target) {
+        copyDirectories(source, target, CopyStrategy.DEFAULT);
+    }
+
+    /**
+     * Copies the tree, copying regular files with the given strategy.
+     */
+    public static void copyDirectories(Path source, Path target, CopyStrategy strategy) {
+        copyDirectories(source, target, strategy, TreeListener.NONE);
+    }
+
+    /**
+     * Copies the tree with the given strategy, reporting progress to the listener.
+     */
+    public static void copyDirectories(Path source, Path target, CopyStrategy strategy, TreeListener listener) {
+        copyDirectories(source, target, ALL, Integer.MAX_VALUE, strategy, listener, NOT_CANCELLED);
+    }
+
+    /**
+     * Copies entries of the tree accepted by the filter. Subtrees of rejected directories
+     * are not walked at all. Directories at {@code maxDepth} are created empty.
+     *
+     * @param filter applied to every entry below {@code source}
+     */
+    public static void copyDirectories(Path source, Path target, BiPredicate<Path, BasicFileAttributes> filter,
+                                       int maxDepth) {
+        copyDirectories(source, target, filter, maxDepth, CopyStrategy.DEFAULT, TreeListener.NONE);
+    }
+
+    /**
+     * Copies filtered entries of the tree with the given strategy, reporting progress to the listener.
+     *
+     * @see #copyDirectories(Path, Path, BiPredicate, int)
+     */
+    public static void copyDirectories(Path source, Path target, BiPredicate<Path, BasicFileAttributes> filter,
+                                       int maxDepth, CopyStrategy strategy, TreeListener listener) {
+        copyDirectories(source, target, filter, maxDepth, strategy, listener, NOT_CANCELLED);
+    }
+
+    private static void copyDirectories(Path source, Path target, BiPredicate<Path, BasicFileAttributes> filter,
+                                        int maxDepth, CopyStrategy strategy, TreeListener listener,
+                                        BooleanSupplier cancelled) {
         try {
-            Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+            Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth,
             new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (cancelled.getAsBoolean())
+                        return FileVisitResult.TERMINATE;
+                    if (!dir.equals(source) && !filter.test(dir, attrs))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    copyDirectory(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        throws IOException {
+                    if (cancelled.getAsBoolean())
+                        return FileVisitResult.TERMINATE;
+                    if (!file.equals(source) && !filter.test(file, attrs))
+                        return FileVisitResult.CONTINUE;
+                    if (attrs.isDirectory()) {
+                        // a directory at the depth limit
+                        copyDirectory(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    long start = System.nanoTime();
+                    long bytes;
+                    try {
+                        bytes = strategy.copy(file, target.resolve(source.relativize(file).toString()), attrs);
+                    } catch (IOException e) {
+                        listener.onError(file, e);
+                        throw e;
+                    }
+                    listener.onFile(file, bytes, System.nanoTime() - start);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    listener.onError(file, exc);
+                    throw exc;
+                }
+                private void copyDirectory(Path dir) throws IOException {
                     Path targetDir = target.resolve(source.relativize(dir).toString());
                     try {
                         Files.copy(dir, targetDir);
                     } catch (FileAlreadyExistsException e) {
-                        if (!Files.isDirectory(targetDir))
+                        if (!Files.isDirectory(targetDir)) {
+                            listener.onError(dir, e);
                             throw e;
+                        }
+                    } catch (IOException e) {
+                        listener.onError(dir, e);
+                        throw e;
+                    }
+                    listener.onDirectory(dir);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Incrementally copies the tree: files whose size and last modified time match
+     * the target are skipped, others are replaced and get the modified time of the source,
+     * unless the strategy {@linkplain CopyStrategy#linked(Path) linked} them to another file.
+     *
+     * @param deleteExtraneous whether to delete target entries absent in the source
+     */
+    public static void syncDirectories(Path source, Path target, boolean deleteExtraneous) {
+        syncDirectories(source, target, deleteExtraneous, CopyStrategy.DEFAULT);
+    }
+
+    /**
+     * Incrementally copies the tree, copying changed files with the given strategy.
+     *
+     * @see #syncDirectories(Path, Path, boolean)
+     */
+    public static void syncDirectories(Path source, Path target, boolean deleteExtraneous, CopyStrategy strategy) {
+        try {
+            Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+            new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Path targetDir = target.resolve(source.relativize(dir).toString());
+                    BasicFileAttributes targetAttrs = readAttributesIfExists(targetDir);
+                    if (targetAttrs != null && !targetAttrs.isDirectory()) {
+                        Files.delete(targetDir);
+                        targetAttrs = null;
                     }
+                    if (targetAttrs == null)
+                        Files.copy(dir, targetDir);
                     return FileVisitResult.CONTINUE;
                 }
                 @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                        throws IOException {
-                    Files.copy(file, target.resolve(source.relativize(file).toString()));
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path targetFile = target.resolve(source.relativize(file).toString());
+                    BasicFileAttributes targetAttrs = readAttributesIfExists(targetFile);
+                    if (targetAttrs != null) {
+                        if (!targetAttrs.isDirectory() && targetAttrs.size() == attrs.size()
+                                && sameTime(targetAttrs.lastModifiedTime(), attrs.lastModifiedTime()))
+                            return FileVisitResult.CONTINUE;
+                        deleteDirectories(targetFile);
+                    }
+                    strategy.copy(file, targetFile, attrs);
+                    // a link shares the time with its reference file, which must stay unchanged
+                    if (!strategy.linked(targetFile))
+                        Files.setLastModifiedTime(targetFile, attrs.lastModifiedTime());
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (exc != null)
+                        throw exc;
+                    if (deleteExtraneous) {
+                        Path targetDir = target.resolve(source.relativize(dir).toString());
+                        try (DirectoryStream<Path> stream = Files.newDirectoryStream(targetDir)) {
+                            for (Path entry : stream) {
+                                Path sourceEntry = dir.resolve(entry.getFileName().toString());
+                                if (!Files.exists(sourceEntry, LinkOption.NOFOLLOW_LINKS))
+                                    deleteDirectories(entry);
+                            }
+                        }
+                    }
                     return FileVisitResult.CONTINUE;
                 }
             });
@@ -88,4 +327,266 @@ public final class FileUtils {
             throw new UncheckedIOException(e);
         }
     }
+
+    private static BasicFileAttributes readAttributesIfExists(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** File systems store times with different precision, millis is the common ground. */
+    private static boolean sameTime(FileTime a, FileTime b) {
+        return a.to(TimeUnit.MILLISECONDS) == b.to(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copies the tree in parallel. Directories are created before their children,
+     * files and subdirectories are copied concurrently. Since copying is I/O bound
+     * the parallelism may exceed the number of cores.
+     * All failures are collected: the first one is thrown, the others are attached as suppressed.
+     */
+    public static void copyDirectories(Path source, Path target, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            copyDirectories(source, target, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Copies the tree in parallel using the given pool.
+     *
+     * @see #copyDirectories(Path, Path, int)
+     */
+    public static void copyDirectories(Path source, Path target, ForkJoinPool pool) {
+        copyDirectories(source, target, CopyStrategy.DEFAULT, pool);
+    }
+
+    /**
+     * Copies the tree in parallel using the given pool and file copy strategy.
+     *
+     * @see #copyDirectories(Path, Path, int)
+     */
+    public static void copyDirectories(Path source, Path target, CopyStrategy strategy, ForkJoinPool pool) {
+        copyDirectories(source, target, strategy, TreeListener.NONE, pool);
+    }
+
+    /**
+     * Copies the tree in parallel using the given pool and file copy strategy,
+     * reporting progress to the listener from the pool threads.
+     *
+     * @see #copyDirectories(Path, Path, int)
+     */
+    public static void copyDirectories(Path source, Path target, CopyStrategy strategy, TreeListener listener,
+                                       ForkJoinPool pool) {
+        copyDirectories(source, target, ALL, Integer.MAX_VALUE, strategy, listener, pool);
+    }
+
+    /**
+     * Copies filtered entries of the tree in parallel.
+     *
+     * @see #copyDirectories(Path, Path, BiPredicate, int)
+     * @see #copyDirectories(Path, Path, int)
+     */
+    public static void copyDirectories(Path source, Path target, BiPredicate<Path, BasicFileAttributes> filter,
+                                       int maxDepth, CopyStrategy strategy, TreeListener listener, ForkJoinPool pool) {
+        ParallelTree.copy(source, target, filter, maxDepth, strategy, listener, pool);
+    }
+
+    /**
+     * Deletes the tree in parallel: subtrees are deleted concurrently and each directory
+     * is deleted once its children are gone. At most {@code maxConcurrency} file system
+     * operations run at the same time.
+     * All failures are collected: the first one is thrown, the others are attached as suppressed.
+     */
+    public static void deleteDirectories(Path path, int maxConcurrency) {
+        ForkJoinPool pool = new ForkJoinPool(maxConcurrency);
+        try {
+            deleteDirectories(path, pool, maxConcurrency);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Deletes the tree in parallel using the given pool.
+     *
+     * @see #deleteDirectories(Path, int)
+     */
+    public static void deleteDirectories(Path path, ForkJoinPool pool, int maxConcurrency) {
+        deleteDirectories(path, pool, maxConcurrency, TreeListener.NONE);
+    }
+
+    /**
+     * Deletes the tree in parallel using the given pool, reporting progress
+     * to the listener from the pool threads.
+     *
+     * @see #deleteDirectories(Path, int)
+     */
+    public static void deleteDirectories(Path path, ForkJoinPool pool, int maxConcurrency, TreeListener listener) {
+        ParallelTree.delete(path, listener, pool, maxConcurrency);
+    }
+
+    /**
+     * Copies the tree on the executor. Cancelling the returned future stops the walk
+     * before the next file; the file being copied at that moment is finished.
+     */
+    public static CompletableFuture<Void> copyDirectoriesAsync(Path source, Path target, Executor executor) {
+        return copyDirectoriesAsync(source, target, CopyStrategy.DEFAULT, TreeListener.NONE, executor);
+    }
+
+    /**
+     * Copies the tree on the executor with the given strategy and listener.
+     *
+     * @see #copyDirectoriesAsync(Path, Path, Executor)
+     */
+    public static CompletableFuture<Void> copyDirectoriesAsync(Path source, Path target, CopyStrategy strategy,
+                                                               TreeListener listener, Executor executor) {
+        return async(executor, cancelled ->
+                copyDirectories(source, target, ALL, Integer.MAX_VALUE, strategy, listener, cancelled));
+    }
+
+    /**
+     * Deletes the tree on the executor. Cancelling the returned future stops the walk
+     * before the next entry.
+     */
+    public static CompletableFuture<Void> deleteDirectoriesAsync(Path path, Executor executor) {
+        return deleteDirectoriesAsync(path, TreeListener.NONE, executor);
+    }
+
+    /**
+     * Deletes the tree on the executor reporting progress to the listener.
+     *
+     * @see #deleteDirectoriesAsync(Path, Executor)
+     */
+    public static CompletableFuture<Void> deleteDirectoriesAsync(Path path, TreeListener listener, Executor executor) {
+        return async(executor, cancelled -> deleteDirectories(path, ALL, Integer.MAX_VALUE, listener, cancelled));
+    }
+
+    /** Runs the operation on the executor; the operation polls the future to stop once it is cancelled. */
+    private static CompletableFuture<Void> async(Executor executor, Consumer<BooleanSupplier> operation) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone())
+                    return;
+                try {
+                    operation.accept(future::isDone);
+                    future.complete(null);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Replaces {@code target} with a copy of {@code source} so that readers see either the old
+     * or the new tree, never a partial one. The tree is copied in parallel into a sibling
+     * staging directory, optionally forced to the storage device, and then moved into place
+     * with {@link StandardCopyOption#ATOMIC_MOVE}. An existing target is first moved aside the
+     * same way to the sibling {@code .<name>.old}, so there is a short window between the two
+     * moves when the target path does not exist. A crash in that window leaves the previous
+     * tree at {@code .<name>.old}; the next call for the same target moves it back before
+     * publishing, so the target is never lost. The old tree is deleted on the pool afterwards.
+     * Staging directories of a crashed copy are not cleaned up, and concurrent calls for the
+     * same target are not supported.
+     *
+     * @param fsync whether to force files and directories of the new tree before the swap
+     * @return completes when the old tree is deleted, exceptionally if that cleanup failed
+     * although the new tree was published
+     */
+    public static CompletableFuture<Void> publishDirectories(Path source, Path target, boolean fsync,
+                                                             ForkJoinPool pool) {
+        return publishDirectories(source, target, CopyStrategy.DEFAULT, fsync, pool);
+    }
+
+    /**
+     * Publishes the tree copying files with the given strategy.
+     *
+     * @see #publishDirectories(Path, Path, boolean, ForkJoinPool)
+     */
+    public static CompletableFuture<Void> publishDirectories(Path source, Path target, CopyStrategy strategy,
+                                                             boolean fsync, ForkJoinPool pool) {
+        String suffix = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        String name = String.valueOf(target.getFileName());
+        Path staging = target.resolveSibling('.' + name + ".staging." + suffix);
+        Path old = target.resolveSibling('.' + name + ".old");
+        Path trash = target.resolveSibling('.' + name + ".trash." + suffix);
+        CompletableFuture<Void> leftover = recover(target, old, trash, pool);
+        try {
+            copyDirectories(source, staging, strategy, pool);
+            if (fsync)
+                ParallelTree.force(staging, pool);
+        } catch (RuntimeException e) {
+            if (Files.exists(staging, LinkOption.NOFOLLOW_LINKS))
+                deleteDirectoriesAsync(staging, pool);
+            throw e;
+        }
+
+        boolean replace = Files.exists(target, LinkOption.NOFOLLOW_LINKS);
+        if (replace) {
+            try {
+                UncheckedFiles.move(target, old, StandardCopyOption.ATOMIC_MOVE);
+            } catch (UncheckedIOException e) {
+                deleteDirectoriesAsync(staging, pool);
+                throw e;
+            }
+        }
+        try {
+            UncheckedFiles.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (UncheckedIOException e) {
+            if (replace)
+                UncheckedFiles.move(old, target, StandardCopyOption.ATOMIC_MOVE);
+            deleteDirectoriesAsync(staging, pool);
+            throw e;
+        }
+        if (fsync && target.toAbsolutePath().getParent() != null) {
+            try {
+                ParallelTree.force(target.toAbsolutePath().getParent(), true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (!replace)
+            return leftover;
+        // the new tree is published: cleanup failures only fail the returned future,
+        // and a previous tree left behind is cleared by the next publish
+        try {
+            UncheckedFiles.move(old, trash, StandardCopyOption.ATOMIC_MOVE);
+        } catch (UncheckedIOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return CompletableFuture.allOf(leftover, failed);
+        }
+        return CompletableFuture.allOf(leftover, deleteDirectoriesAsync(trash, pool));
+    }
+
+    /**
+     * Finishes a publish interrupted by a crash: restores the previous tree if the target
+     * is missing, otherwise deletes the previous tree left behind on the pool.
+     */
+    private static CompletableFuture<Void> recover(Path target, Path old, Path trash, ForkJoinPool pool) {
+        if (!Files.exists(old, LinkOption.NOFOLLOW_LINKS))
+            return CompletableFuture.completedFuture(null);
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            UncheckedFiles.move(old, target, StandardCopyOption.ATOMIC_MOVE);
+            return CompletableFuture.completedFuture(null);
+        }
+        Path stale = trash.resolveSibling(trash.getFileName() + ".stale");
+        try {
+            UncheckedFiles.move(old, stale, StandardCopyOption.ATOMIC_MOVE);
+        } catch (UncheckedIOException e) {
+            // cannot be moved out of the way: the target must not be moved aside onto it
+            deleteDirectories(old);
+            return CompletableFuture.completedFuture(null);
+        }
+        return deleteDirectoriesAsync(stale, pool);
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+
+/**
+ * Template and parameters formatted by {@link StringFormatter} only when the message is
+ * first rendered, for messages that are mostly discarded. The rendered string is cached.
+ * Parameters are captured by reference, so they should not change before rendering.
+ * Created by {@link StringFormatter#lazy(String, Object)} and its overloads.
+ *
+ * @author Pavel Erofeev
+ */
+public final class LazyMessage {
+
+    private final String template;
+    /** Number of parameters, not counting {@code rest}. */
+    private final int count;
+    private final Object p0, p1, p2, p3;
+    private final Object[] rest;
+    /** Type of primitive parameters held in {@code n0} and {@code n1}, 0 for objects. */
+    private final char kind;
+    private final long n0, n1;
+    private String rendered;
+
+
+    LazyMessage(String template, int count, Object p0, Object p1, Object p2, Object p3) {
+        this.template = template;
+        this.count = count;
+        this.p0 = p0;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.p3 = p3;
+        this.rest = null;
+        this.kind = 0;
+        this.n0 = this.n1 = 0;
+    }
+
+    /** Up to two primitives of one type held in longs, {@code kind} tells how to render them. */
+    LazyMessage(String template, int count, char kind, long n0, long n1) {
+        this.template = template;
+        this.count = count;
+        this.p0 = this.p1 = this.p2 = this.p3 = null;
+        this.rest = null;
+        this.kind = kind;
+        this.n0 = n0;
+        this.n1 = n1;
+    }
+
+    LazyMessage(String template, Object[] params) {
+        this.template = template;
+        this.count = 0;
+        this.p0 = this.p1 = this.p2 = this.p3 = null;
+        this.rest = params;
+        this.kind = 0;
+        this.n0 = this.n1 = 0;
+    }
+
+    public String template() {
+        return template;
+    }
+
+    /** Appends the message, rendering it into the builder if it has not been rendered yet. */
+    public StringBuilder appendTo(StringBuilder sb) {
+        String s = rendered;
+        if (s != null)
+            return sb.append(s);
+        return render(sb);
+    }
+
+    private StringBuilder render(StringBuilder sb) {
+        StringFormatter.Template t = StringFormatter.cached(template);
+        if (rest != null)
+            return t.appendTo(sb, rest);
+        return kind != 0 ? t.appendTo(sb, count, kind, n0, n1) : t.appendTo(sb, count, p0, p1, p2, p3);
+    }
+
+    @Override
+    public String toString() {
+        // racing threads render the same string
+        String s = rendered;
+        if (s == null) {
+            s = render(new StringBuilder(template.length() + 64)).toString();
+            rendered = s;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Writes lines encoding them into a set of pooled direct buffers, which are written
+ * to the file with a single gathering write once all of them are full.
+ * Like {@link java.nio.file.Files#write(Path, Iterable, Charset, OpenOption...)} every line
+ * is followed by the system line separator. Not thread safe.
+ *
+ * @author Pavel Erofeev
+ */
+public final class LineWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFERS = 8;
+
+    private final FileChannel channel;
+    private final CharsetEncoder encoder;
+    private final Durability durability;
+    private final ByteBuffer[] buffers = new ByteBuffer[BUFFERS];
+    private final char[] separator = System.lineSeparator().toCharArray();
+    private int current;
+    private char[] chars = new char[256];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+    private long lastSync = System.nanoTime();
+    private boolean closed;
+
+
+    private LineWriter(FileChannel channel, Charset cs, Durability durability) {
+        this.channel = channel;
+        this.encoder = cs.newEncoder();
+        this.durability = durability;
+        for (int i = 0; i < BUFFERS; i++)
+            buffers[i] = BufferPool.SHARED.acquire(BUFFER_SIZE);
+    }
+
+    /**
+     * Opens the file for writing. Without options the file is created or truncated,
+     * like {@link java.nio.file.Files#newOutputStream(Path, OpenOption...)}.
+     */
+    public static LineWriter open(Path path, Charset cs, Durability durability, OpenOption... options) {
+        Set<OpenOption> opts = new HashSet<>(Arrays.asList(options));
+        if (opts.isEmpty()) {
+            opts.add(StandardOpenOption.CREATE);
+            opts.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        opts.add(StandardOpenOption.WRITE);
+        try {
+            return new LineWriter(FileChannel.open(path, opts), cs, durability);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the lines to the file.
+     *
+     * @see java.nio.file.Files#write(Path, Iterable, Charset, OpenOption...)
+     */
+    public static Path write(Path path, Iterable<? extends CharSequence> lines, Charset cs, Durability durability,
+                             OpenOption... options) {
+        try (LineWriter writer = open(path, cs, durability, options)) {
+            writer.writeAll(lines);
+        }
+        return path;
+    }
+
+    /** Writes the line followed by the line separator. */
+    public LineWriter write(CharSequence line) {
+        ensureOpen();
+        int length = line.length();
+        int total = length + separator.length;
+        if (chars.length < total) {
+            chars = new char[Math.max(total, chars.length * 2)];
+            charBuffer = CharBuffer.wrap(chars);
+        }
+        if (line instanceof String) {
+            ((String) line).getChars(0, length, chars, 0);
+        } else {
+            for (int i = 0; i < length; i++)
+                chars[i] = line.charAt(i);
+        }
+        System.arraycopy(separator, 0, chars, length, separator.length);
+        charBuffer.clear();
+        charBuffer.limit(total);
+        encode(charBuffer, false);
+        return this;
+    }
+
+    public LineWriter writeAll(Iterable<? extends CharSequence> lines) {
+        for (CharSequence line : lines)
+            write(line);
+        return this;
+    }
+
+    private void encode(CharBuffer in, boolean endOfInput) {
+        while (true) {
+            CoderResult result = encoder.encode(in, buffers[current], endOfInput);
+            if (result.isUnderflow())
+                return;
+            if (result.isOverflow()) {
+                nextBuffer();
+            } else {
+                try {
+                    result.throwException();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private void nextBuffer() {
+        if (current + 1 < BUFFERS)
+            current++;
+        else
+            writeBuffers();
+    }
+
+    /** Writes the buffered bytes to the file, forcing them to the device if the durability requires. */
+    public void flush() {
+        ensureOpen();
+        writeBuffers();
+    }
+
+    private void writeBuffers() {
+        try {
+            for (int i = 0; i <= current; i++)
+                buffers[i].flip();
+            long remaining = 0;
+            for (int i = 0; i <= current; i++)
+                remaining += buffers[i].remaining();
+            while (remaining > 0)
+                remaining -= channel.write(buffers, 0, current + 1);
+            for (int i = 0; i <= current; i++)
+                buffers[i].clear();
+            current = 0;
+            if (durability.periodNanos > 0 && System.nanoTime() - lastSync >= durability.periodNanos) {
+                channel.force(false);
+                lastSync = System.nanoTime();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            charBuffer.clear();
+            charBuffer.limit(0);
+            encode(charBuffer, true);
+            while (encoder.flush(buffers[current]).isOverflow())
+                nextBuffer();
+            writeBuffers();
+            if (durability != Durability.NONE)
+                channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // the buffers may be handed out again right away: never touch them after this
+            for (int i = 0; i < BUFFERS; i++) {
+                BufferPool.SHARED.release(buffers[i]);
+                buffers[i] = null;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("LineWriter is closed");
+    }
+
+
+    /**
+     * When written data is forced to the storage device.
+     */
+    public static final class Durability {
+        /** Leaves it to the operating system. */
+        public static final Durability NONE = new Durability(-1);
+        /** Forces the file when the writer is closed. */
+        public static final Durability ON_CLOSE = new Durability(0);
+
+        private final long periodNanos;
+
+        private Durability(long periodNanos) {
+            this.periodNanos = periodNanos;
+        }
+
+        /** Forces the file on flush if the previous force was at least {@code millis} ago, and on close. */
+        public static Durability periodic(long millis) {
+            return new Durability(Math.max(1, millis) * 1_000_000);
+        }
+
+        public String toString() {
+            return this == NONE ? "NONE" : this == ON_CLOSE ? "ON_CLOSE" : "periodic(" + periodNanos / 1_000_000 + ')';
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Reads lines of large files through memory mapping: either without allocating per line,
+ * or as a stream that splits well in parallel.
+ * Lines are terminated like in {@link java.io.BufferedReader#readLine()}: by
+ * {@code \n}, {@code \r} or {@code \r\n}.
+ *
+ * @author Pavel Erofeev
+ */
+public final class MappedLines {
+
+    /** Files are mapped by regions of at most this size, it also limits the length of a line. */
+    static final int REGION_SIZE = 1 << 30;
+
+    /** Parallel streams do not split byte ranges smaller than this. */
+    static final long MIN_SPLIT_SIZE = 1 << 20;
+
+    private MappedLines() {}
+
+    /**
+     * Passes every line of the file to the action. The same {@link Line} instance is reused
+     * for all lines and is valid only during the call: use {@link Line#toString()} or
+     * {@link Line#toByteArray()} to keep the content.
+     */
+    public static void forEach(Path path, Consumer<? super Line> action) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            scan(channel, 0, channel.size(), REGION_SIZE, action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Scans lines in {@code [start, end)} of the channel, {@code start} must be the beginning of a line.
+     */
+    static void scan(FileChannel channel, long start, long end, int regionSize, Consumer<? super Line> action)
+            throws IOException {
+        Cursor cursor = new Cursor(channel, start, end, regionSize);
+        Line line = new Line();
+        while (cursor.next(line))
+            action.accept(line);
+    }
+
+    /**
+     * Returns lines of the file decoded with the charset. Unlike {@link java.nio.file.Files#lines(Path)}
+     * the stream splits well in parallel: the file is divided into byte ranges at line boundaries,
+     * and every range is mapped and decoded independently. The stream is ordered; use
+     * {@link Stream#unordered()} when the order of lines does not matter.
+     * The stream should be closed to close the file.
+     */
+    public static Stream<String> lines(Path path, Charset cs) {
+        return lines(path, cs, MIN_SPLIT_SIZE);
+    }
+
+    /**
+     * Returns lines of the file decoded as UTF-8.
+     *
+     * @see #lines(Path, Charset)
+     */
+    public static Stream<String> lines(Path path) {
+        return lines(path, StandardCharsets.UTF_8);
+    }
+
+    static Stream<String> lines(Path path, Charset cs, long minSplitSize) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                LineSpliterator spliterator = new LineSpliterator(channel, 0, channel.size(), cs, minSplitSize);
+                return StreamSupport.stream(spliterator, false).onClose(() -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    e.addSuppressed(ex);
+                }
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Position of the first line start at or after {@code position}, or {@code end}. */
+    static long nextLineStart(FileChannel channel, long position, long end) throws IOException {
+        if (position <= 0)
+            return 0;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long base = position - 1;
+        int previous = -1;
+        while (base < end) {
+            buffer.clear();
+            int n = channel.read(buffer, base);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++) {
+                int b = buffer.get(i);
+                if (previous == '\n' || previous == '\r' && b != '\n')
+                    return base + i;
+                previous = b;
+            }
+            base += n;
+        }
+        return end;
+    }
+
+    /** Reads lines one by one, mapping the range region by region. */
+    static final class Cursor {
+        private final FileChannel channel;
+        private final long end;
+        private final int regionSize;
+        private final ByteBuffer single = ByteBuffer.allocate(1);
+        private long position;
+        private MappedByteBuffer buffer;
+        private long regionStart;
+        private int size;
+        private boolean last;
+
+        Cursor(FileChannel channel, long start, long end, int regionSize) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            this.regionSize = regionSize;
+        }
+
+        boolean next(Line line) throws IOException {
+            if (position >= end)
+                return false;
+            if (buffer == null || position >= regionStart + size)
+                map();
+            while (true) {
+                int lineStart = (int) (position - regionStart);
+                for (int i = lineStart; i < size; i++) {
+                    byte b = buffer.get(i);
+                    if (b != '\n' && b != '\r')
+                        continue;
+                    long next = regionStart + i + 1;
+                    if (b == '\r') {
+                        if (i + 1 < size) {
+                            if (buffer.get(i + 1) == '\n')
+                                next++;
+                        } else if (!last && peek(next) == '\n') {
+                            next++;
+                        }
+                    }
+                    line.set(buffer, lineStart, i - lineStart, position);
+                    position = next;
+                    return true;
+                }
+                if (last) {
+                    line.set(buffer, lineStart, size - lineStart, position);
+                    position = end;
+                    return true;
+                }
+                if (lineStart == 0)
+                    throw new IOException("Line at " + position + " is longer than " + regionSize + " bytes");
+                map();
+            }
+        }
+
+        private void map() throws IOException {
+            regionStart = position;
+            size = (int) Math.min(regionSize, end - position);
+            last = regionStart + size == end;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size);
+        }
+
+        private int peek(long position) throws IOException {
+            single.clear();
+            return channel.read(single, position) == 1 ? single.get(0) : -1;
+        }
+    }
+
+    private static final class LineSpliterator implements Spliterator<String> {
+        private final FileChannel channel;
+        private final Charset cs;
+        private final long minSplitSize;
+        private long start;
+        private final long end;
+        private Cursor cursor;
+        private Line line;
+
+        LineSpliterator(FileChannel channel, long start, long end, Charset cs, long minSplitSize) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.cs = cs;
+            this.minSplitSize = minSplitSize;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (cursor == null) {
+                cursor = new Cursor(channel, start, end, REGION_SIZE);
+                line = new Line();
+            }
+            try {
+                if (!cursor.next(line))
+                    return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            action.accept(line.toString(cs));
+            return true;
+        }
+
+        @Override
+        public Spliterator<String> trySplit() {
+            if (cursor != null || end - start < 2 * minSplitSize)
+                return null;
+            long middle;
+            try {
+                middle = nextLineStart(channel, start + (end - start) / 2, end);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (middle <= start || middle >= end)
+                return null;
+            LineSpliterator prefix = new LineSpliterator(channel, start, middle, cs, minSplitSize);
+            start = middle;
+            return prefix;
+        }
+
+        /** Number of remaining bytes: lines are not counted in advance. */
+        @Override
+        public long estimateSize() {
+            return cursor == null ? end - start : Math.max(0, end - cursor.position);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * A line of a mapped file, without the terminator. Valid only until the next line is read.
+     */
+    public static final class Line {
+        private ByteBuffer buffer;
+        private int start;
+        private int length;
+        private long offset;
+
+        Line() {}
+
+        void set(ByteBuffer buffer, int start, int length, long offset) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.offset = offset;
+        }
+
+        /** Length in bytes. */
+        public int length() {
+            return length;
+        }
+
+        public boolean isEmpty() {
+            return length == 0;
+        }
+
+        /** Position of the line in the file. */
+        public long offset() {
+            return offset;
+        }
+
+        public byte byteAt(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            return buffer.get(start + index);
+        }
+
+        /** Index of the first occurrence of the bytes in the line, or -1. */
+        public int indexOf(byte[] bytes) {
+            int n = bytes.length;
+            outer:
+            for (int i = 0; i + n <= length; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (buffer.get(start + i + j) != bytes[j])
+                        continue outer;
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        public boolean contains(byte[] bytes) {
+            return indexOf(bytes) >= 0;
+        }
+
+        public boolean startsWith(byte[] prefix) {
+            if (prefix.length > length)
+                return false;
+            for (int i = 0; i < prefix.length; i++) {
+                if (buffer.get(start + i) != prefix[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /** Read-only view of the line bytes, valid as long as the line. */
+        public ByteBuffer buffer() {
+            ByteBuffer view = buffer.asReadOnlyBuffer();
+            view.position(start);
+            view.limit(start + length);
+            return view.slice();
+        }
+
+        /** Copies the line bytes. */
+        public byte[] toByteArray() {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(bytes);
+            return bytes;
+        }
+
+        /** Decodes a copy of the line. */
+        public String toString(Charset cs) {
+            return new String(toByteArray(), cs);
+        }
+
+        /** Decodes a copy of the line as UTF-8. */
+        public String toString() {
+            return toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiPredicate;
+
+
+/**
+ * Fork-join implementations of the {@link FileUtils} tree operations.
+ * Errors do not stop the whole operation: they are collected and rethrown
+ * once all tasks are finished.
+ *
+ * @author Pavel Erofeev
+ */
+final class ParallelTree {
+
+    private ParallelTree() {}
+
+    static void copy(Path source, Path target, BiPredicate<Path, BasicFileAttributes> filter, int maxDepth,
+                     CopyStrategy strategy, TreeListener listener, ForkJoinPool pool) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = readAttributes(source);
+        } catch (IOException e) {
+            listener.onError(source, e);
+            throw new UncheckedIOException(e);
+        }
+        Context ctx = new Context(filter, maxDepth, strategy, null, listener);
+        if (attrs.isDirectory())
+            pool.invoke(new CopyDirTask(source, target, attrs, 0, null, ctx));
+        else
+            pool.invoke(new CopyFileTask(source, target, attrs, ctx));
+        ctx.rethrow();
+    }
+
+    static void delete(Path path, TreeListener listener, ForkJoinPool pool, int maxConcurrency) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            listener.onError(path, e);
+            throw new UncheckedIOException(e);
+        }
+        Context ctx = new Context(null, 0, null, new Semaphore(maxConcurrency), listener);
+        if (attrs.isDirectory()) {
+            pool.invoke(new DeleteDirTask(path, ctx));
+        } else {
+            DeleteFilesTask task = new DeleteFilesTask(1, ctx);
+            task.add(path, attrs.size());
+            pool.invoke(task);
+        }
+        ctx.rethrow();
+    }
+
+    /** Forces files and then directories of the tree to the storage device. */
+    static void force(Path dir, ForkJoinPool pool) {
+        Context ctx = new Context(null, 0, null, null, TreeListener.NONE);
+        pool.invoke(new ForceDirTask(dir, ctx));
+        ctx.rethrow();
+    }
+
+    static void force(Path path, boolean directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform allows opening a directory
+            if (!directory)
+                throw e;
+        }
+    }
+
+    /** State shared by all tasks of one operation. */
+    static final class Context {
+        final BiPredicate<Path, BasicFileAttributes> filter;
+        final int maxDepth;
+        final CopyStrategy strategy;
+        /** Limits the number of concurrent file system operations, may be null. */
+        final Semaphore permits;
+        final TreeListener listener;
+        private final Queue<IOException> errors = new ConcurrentLinkedQueue<>();
+
+        Context(BiPredicate<Path, BasicFileAttributes> filter, int maxDepth, CopyStrategy strategy,
+                Semaphore permits, TreeListener listener) {
+            this.filter = filter;
+            this.maxDepth = maxDepth;
+            this.strategy = strategy;
+            this.permits = permits;
+            this.listener = listener;
+        }
+
+        void fail(Path path, IOException e) {
+            errors.add(e);
+            listener.onError(path, e);
+        }
+
+        void acquire() {
+            if (permits != null)
+                permits.acquireUninterruptibly();
+        }
+
+        void release() {
+            if (permits != null)
+                permits.release();
+        }
+
+        void rethrow() {
+            IOException first = errors.poll();
+            if (first == null)
+                return;
+            UncheckedIOException e = new UncheckedIOException(first);
+            for (IOException other : errors)
+                e.addSuppressed(other);
+            throw e;
+        }
+    }
+
+    /** Chain of visited directories, used to detect cycles when following links. */
+    static final class Ancestor {
+        final Path dir;
+        final Object fileKey;
+        final Ancestor parent;
+
+        Ancestor(Path dir, BasicFileAttributes attrs, Ancestor parent) {
+            this.dir = dir;
+            this.fileKey = attrs.fileKey();
+            this.parent = parent;
+        }
+
+        static boolean isLoop(Path dir, BasicFileAttributes attrs, Ancestor ancestor) throws IOException {
+            Object key = attrs.fileKey();
+            for (Ancestor a = ancestor; a != null; a = a.parent) {
+                if (key != null && a.fileKey != null) {
+                    if (key.equals(a.fileKey))
+                        return true;
+                } else if (Files.isSameFile(dir, a.dir)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // broken link: fall back to the attributes of the link itself, like Files.walkFileTree
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ignored) {
+                throw e;
+            }
+        }
+    }
+
+    static Path resolve(Path dir, Path child) {
+        return dir.resolve(Objects.toString(child.getFileName()));
+    }
+
+    private static final class CopyDirTask extends RecursiveAction {
+        private static final long serialVersionUID = 8842514861359412280L;
+
+        private final Path source;
+        private final Path target;
+        private final BasicFileAttributes attrs;
+        private final int depth;
+        private final Ancestor parent;
+        private final Context ctx;
+
+        CopyDirTask(Path source, Path target, BasicFileAttributes attrs, int depth, Ancestor parent, Context ctx) {
+            this.source = source;
+            this.target = target;
+            this.attrs = attrs;
+            this.depth = depth;
+            this.parent = parent;
+            this.ctx = ctx;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            try {
+                if (Ancestor.isLoop(source, attrs, parent))
+                    throw new FileSystemLoopException(source.toString());
+                try {
+                    Files.copy(source, target);
+                } catch (FileAlreadyExistsException e) {
+                    if (!Files.isDirectory(target))
+                        throw e;
+                }
+                ctx.listener.onDirectory(source);
+                if (depth >= ctx.maxDepth)
+                    return;
+                Ancestor self = new Ancestor(source, attrs, parent);
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+                    for (Path child : stream) {
+                        Path childTarget = resolve(target, child);
+                        try {
+                            BasicFileAttributes childAttrs = readAttributes(child);
+                            if (!ctx.filter.test(child, childAttrs))
+                                continue;
+                            if (childAttrs.isDirectory())
+                                tasks.add(new CopyDirTask(child, childTarget, childAttrs, depth + 1, self, ctx));
+                            else
+                                tasks.add(new CopyFileTask(child, childTarget, childAttrs, ctx));
+                        } catch (IOException e) {
+                            ctx.fail(child, e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                ctx.fail(source, e);
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private static final class CopyFileTask extends RecursiveAction {
+        private static final long serialVersionUID = 3741603982383516983L;
+
+        private final Path source;
+        private final Path target;
+        private final BasicFileAttributes attrs;
+        private final Context ctx;
+
+        CopyFileTask(Path source, Path target, BasicFileAttributes attrs, Context ctx) {
+            this.source = source;
+            this.target = target;
+            this.attrs = attrs;
+            this.ctx = ctx;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                long start = System.nanoTime();
+                long bytes = ctx.strategy.copy(source, target, attrs);
+                ctx.listener.onFile(source, bytes, System.nanoTime() - start);
+            } catch (IOException e) {
+                ctx.fail(source, e);
+            }
+        }
+    }
+
+    private static final class ForceDirTask extends RecursiveAction {
+        private static final long serialVersionUID = 545363681616962640L;
+
+        private final Path dir;
+        private final Context ctx;
+
+        ForceDirTask(Path dir, Context ctx) {
+            this.dir = dir;
+            this.ctx = ctx;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(new ForceDirTask(child, ctx));
+                    } else if (Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(adapt(() -> {
+                            try {
+                                force(child, false);
+                            } catch (IOException e) {
+                                ctx.fail(child, e);
+                            }
+                        }));
+                    }
+                }
+            } catch (IOException e) {
+                ctx.fail(dir, e);
+                return;
+            }
+            invokeAll(tasks);
+            // entries of the directory are durable only after the directory itself
+            try {
+                force(dir, true);
+            } catch (IOException e) {
+                ctx.fail(dir, e);
+            }
+        }
+    }
+
+    private abstract static class DeleteTask extends RecursiveAction {
+        private static final long serialVersionUID = 7674918311415852851L;
+
+        final Context ctx;
+        /** Whether everything this task was responsible for is gone. */
+        boolean deleted;
+
+        DeleteTask(Context ctx) {
+            this.ctx = ctx;
+        }
+    }
+
+    /** Deletes the contents of a directory in parallel, then the directory itself. */
+    private static final class DeleteDirTask extends DeleteTask {
+        private static final long serialVersionUID = 968196408185819179L;
+
+        private static final int BATCH = 64;
+
+        private final Path dir;
+
+        DeleteDirTask(Path dir, Context ctx) {
+            super(ctx);
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteTask> tasks = new ArrayList<>();
+            DeleteFilesTask files = new DeleteFilesTask(BATCH, ctx);
+            boolean complete = true;
+            ctx.acquire();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        ctx.fail(child, e);
+                        complete = false;
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        tasks.add(new DeleteDirTask(child, ctx));
+                    } else {
+                        files.add(child, attrs.size());
+                        if (files.isFull()) {
+                            tasks.add(files);
+                            files = new DeleteFilesTask(BATCH, ctx);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                ctx.fail(dir, e);
+                return;
+            } finally {
+                ctx.release();
+            }
+            if (!files.isEmpty())
+                tasks.add(files);
+            invokeAll(tasks);
+            for (DeleteTask task : tasks)
+                complete &= task.deleted;
+            // a failed child already explains why the directory stays
+            if (complete && delete(dir, ctx)) {
+                ctx.listener.onDirectory(dir);
+                deleted = true;
+            }
+        }
+    }
+
+    private static final class DeleteFilesTask extends DeleteTask {
+        private static final long serialVersionUID = 5475270654777870840L;
+
+        private final Path[] files;
+        private final long[] sizes;
+        private int count;
+
+        DeleteFilesTask(int capacity, Context ctx) {
+            super(ctx);
+            this.files = new Path[capacity];
+            this.sizes = new long[capacity];
+        }
+
+        void add(Path file, long size) {
+            files[count] = file;
+            sizes[count] = size;
+            count++;
+        }
+
+        boolean isFull() {
+            return count == files.length;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        @Override
+        protected void compute() {
+            boolean all = true;
+            for (int i = 0; i < count; i++) {
+                long start = System.nanoTime();
+                if (delete(files[i], ctx))
+                    ctx.listener.onFile(files[i], sizes[i], System.nanoTime() - start);
+                else
+                    all = false;
+            }
+            deleted = all;
+        }
+    }
+
+    private static boolean delete(Path path, Context ctx) {
+        ctx.acquire();
+        try {
+            Files.delete(path);
+            return true;
+        } catch (IOException e) {
+            ctx.fail(path, e);
+            return false;
+        } finally {
+            ctx.release();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Copies files block by block without writing blocks that contain only zeros, so holes
+ * of sparse files stay holes in the target. The target is sized to its final length
+ * before the data is written.
+ * Files smaller than a block are copied with {@link CopyStrategy#DEFAULT}.
+ *
+ * @author Pavel Erofeev
+ */
+public final class SparseCopyStrategy implements CopyStrategy {
+
+    private final int blockSize;
+    private final ThreadLocal<ByteBuffer> buffers;
+    private final LongAdder skippedBytes = new LongAdder();
+
+
+    SparseCopyStrategy(int blockSize) {
+        if (blockSize <= 0 || blockSize % 8 != 0)
+            throw new IllegalArgumentException("block size must be a positive multiple of 8: " + blockSize);
+        this.blockSize = blockSize;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(blockSize));
+    }
+
+    @Override
+    public long copy(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+        if (attrs.size() < blockSize)
+            return DEFAULT.copy(source, target, attrs);
+
+        ByteBuffer buffer = buffers.get();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                     StandardOpenOption.SPARSE)) {
+            long size = in.size();
+            // sets the final length at once, everything not written below stays a hole
+            writeFully(out, ByteBuffer.wrap(new byte[1]), size - 1);
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(blockSize, size - position));
+                readFully(in, buffer, position);
+                buffer.flip();
+                int n = buffer.remaining();
+                if (n == 0)
+                    break;
+                if (isZero(buffer))
+                    skippedBytes.add(n);
+                else
+                    writeFully(out, buffer, position);
+                position += n;
+            }
+            return position;
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0)
+                break;
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining())
+            p += out.write(buffer, p);
+    }
+
+    private static boolean isZero(ByteBuffer buffer) {
+        int i = buffer.position();
+        int limit = buffer.limit();
+        for (; i + 8 <= limit; i += 8) {
+            if (buffer.getLong(i) != 0)
+                return false;
+        }
+        for (; i < limit; i++) {
+            if (buffer.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** Number of zero bytes not written to targets. */
+    public long skippedBytes() {
+        return skippedBytes.sum();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+
+/**
+ * Renders stack traces in the format of {@link Throwable#printStackTrace()}, without its
+ * locking and writers. Frames of every throwable beyond {@code maxFrames} are replaced
+ * with a "... n frames omitted" line, and causes and suppressed throwables nested deeper
+ * than {@code maxCauses} with a "[n more omitted]" line. Frames in common with the
+ * enclosing trace are folded into "... n more" like in {@code printStackTrace}.
+ * <p>
+ * With a cache, rendered traces are kept by a fingerprint of class names, messages and
+ * frames, so a repeated identical exception is rendered once. Fingerprints are 64-bit
+ * hashes: different traces are assumed not to collide.
+ *
+ * @author Pavel Erofeev
+ */
+public final class StackTraceRenderer {
+
+    /** Renders complete traces, exactly like {@code printStackTrace}. */
+    public static final StackTraceRenderer UNBOUNDED = new StackTraceRenderer(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private static final String NL = System.lineSeparator();
+    private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+    /** Initial capacity of the builder a trace is rendered into. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maxFrames;
+    private final int maxCauses;
+    /** Rendered traces by fingerprint, colliding slots replace each other; null if not caching. */
+    private final Entry[] cache;
+
+
+    public StackTraceRenderer(int maxFrames, int maxCauses) {
+        this(maxFrames, maxCauses, 0);
+    }
+
+    /**
+     * @param maxFrames frames rendered per throwable
+     * @param maxCauses depth of rendered causes and suppressed throwables, 0 renders only the throwable itself
+     * @param cacheSize number of cached traces, rounded up to a power of two, 0 to disable caching
+     */
+    public StackTraceRenderer(int maxFrames, int maxCauses, int cacheSize) {
+        if (maxFrames < 0 || maxCauses < 0 || cacheSize < 0)
+            throw new IllegalArgumentException("maxFrames: " + maxFrames + ", maxCauses: " + maxCauses
+                    + ", cacheSize: " + cacheSize);
+        this.maxFrames = maxFrames;
+        this.maxCauses = maxCauses;
+        this.cache = cacheSize == 0 ? null : new Entry[Integer.highestOneBit(Math.max(1, cacheSize * 2 - 1))];
+    }
+
+    /**
+     * Renders the trace, from the cache if enabled. Traces are rendered into a builder of their
+     * own: the shared one of {@link StringFormatter} may hold a caller's message, and toString()
+     * of a throwable may render another trace.
+     */
+    public String render(Throwable throwable) {
+        if (cache == null)
+            return appendTo(new StringBuilder(INITIAL_CAPACITY), throwable).toString();
+        long fingerprint = fingerprint(throwable, 0, 17, newIdentitySet());
+        int i = (int) fingerprint & (cache.length - 1);
+        Entry entry = cache[i];
+        if (entry != null && entry.fingerprint == fingerprint)
+            return entry.text;
+        String text = appendTo(new StringBuilder(INITIAL_CAPACITY), throwable).toString();
+        cache[i] = new Entry(fingerprint, text);
+        return text;
+    }
+
+    /** Appends the trace to the builder, bypassing the cache. */
+    public StringBuilder appendTo(StringBuilder sb, Throwable throwable) {
+        Set<Throwable> seen = newIdentitySet();
+        seen.add(throwable);
+        sb.append(throwable).append(NL);
+        StackTraceElement[] trace = throwable.getStackTrace();
+        appendFrames(sb, trace, NO_FRAMES, "");
+        appendNested(sb, throwable, trace, "", 1, seen);
+        return sb;
+    }
+
+    private void appendNested(StringBuilder sb, Throwable throwable, StackTraceElement[] trace, String prefix,
+                              int depth, Set<Throwable> seen) {
+        for (Throwable suppressed : throwable.getSuppressed())
+            appendEnclosed(sb, suppressed, trace, "Suppressed: ", prefix + '\t', depth, seen);
+        Throwable cause = throwable.getCause();
+        if (cause != null)
+            appendEnclosed(sb, cause, trace, "Caused by: ", prefix, depth, seen);
+    }
+
+    private void appendEnclosed(StringBuilder sb, Throwable throwable, StackTraceElement[] enclosing,
+                                String caption, String prefix, int depth, Set<Throwable> seen) {
+        if (seen.contains(throwable)) {
+            sb.append(prefix).append(caption).append("[CIRCULAR REFERENCE: ").append(throwable).append(']').append(NL);
+            return;
+        }
+        if (depth > maxCauses) {
+            int omitted = 0;
+            for (Throwable t = throwable; t != null && seen.add(t); t = t.getCause())
+                omitted++;
+            sb.append(prefix).append(caption).append('[').append(omitted).append(" more omitted]").append(NL);
+            return;
+        }
+        seen.add(throwable);
+        sb.append(prefix).append(caption).append(throwable).append(NL);
+        StackTraceElement[] trace = throwable.getStackTrace();
+        appendFrames(sb, trace, enclosing, prefix);
+        appendNested(sb, throwable, trace, prefix, depth + 1, seen);
+    }
+
+    private void appendFrames(StringBuilder sb, StackTraceElement[] trace, StackTraceElement[] enclosing,
+                              String prefix) {
+        int m = trace.length - 1;
+        for (int n = enclosing.length - 1; m >= 0 && n >= 0 && trace[m].equals(enclosing[n]); n--)
+            m--;
+        int unique = m + 1;
+        int shown = Math.min(unique, maxFrames);
+        for (int i = 0; i < shown; i++)
+            sb.append(prefix).append("\tat ").append(trace[i]).append(NL);
+        if (unique > shown)
+            sb.append(prefix).append("\t... ").append(unique - shown).append(" frames omitted").append(NL);
+        if (unique < trace.length)
+            sb.append(prefix).append("\t... ").append(trace.length - unique).append(" more").append(NL);
+    }
+
+    /** Hashes what the rendering depends on, without rendering. */
+    private long fingerprint(Throwable throwable, int depth, long h, Set<Throwable> seen) {
+        if (!seen.add(throwable) || depth > maxCauses)
+            return mix(h, depth);
+        h = mix(h, throwable.getClass().getName().hashCode());
+        h = mix(h, String.valueOf(throwable.getLocalizedMessage()).hashCode());
+        StackTraceElement[] trace = throwable.getStackTrace();
+        h = mix(h, trace.length);
+        for (StackTraceElement e : trace)
+            h = mix(h, e.hashCode());
+        for (Throwable suppressed : throwable.getSuppressed())
+            h = fingerprint(suppressed, depth + 1, mix(h, 1), seen);
+        Throwable cause = throwable.getCause();
+        return cause == null ? h : fingerprint(cause, depth + 1, mix(h, 2), seen);
+    }
+
+    private static long mix(long h, int v) {
+        h = (h ^ v) * 0x9e3779b97f4a7c15L;
+        return h ^ h >>> 29;
+    }
+
+    private static Set<Throwable> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+
+    private static final class Entry {
+        final long fingerprint;
+        final String text;
+
+        Entry(long fingerprint, String text) {
+            this.fingerprint = fingerprint;
+            this.text = text;
+        }
+    }
+}
@@ -25,8 +25,10 @@
 package epavel.util;
 
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -38,23 +40,335 @@ public final class StringFormatter {
 
     private StringFormatter() {}
 
+    /** Builders above this capacity are not kept for reuse. */
+    private static final int MAX_SHARED_CAPACITY = 1 << 16;
+
+    private static final ThreadLocal<StringBuilder> SHARED = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    /** Compiled templates by identity hash, colliding templates replace each other. */
+    private static final Template[] CACHE = new Template[256];
+    /** Last template that missed an occupied slot, which it takes over when seen again. */
+    private static final String[] MISSED = new String[CACHE.length];
+
     public static String $(String template, Object... params) {
-        StringBuilder sb = new StringBuilder();
-        int k = 0;
-        for (Object p : params) {
-            int i = template.indexOf("{}", k);
-            if (i == -1)
+        return cached(template).format(params);
+    }
+
+    /*
+     * Primitives are formatted without boxing by named methods: overloads of $ would be chosen
+     * for boxed arguments too, unboxing them and throwing on null.
+     */
+
+    public static String formatLong(String template, long p0) {
+        return cached(template).formatLong(p0);
+    }
+
+    public static String formatLongs(String template, long p0, long p1) {
+        return cached(template).formatLongs(p0, p1);
+    }
+
+    public static String formatDouble(String template, double p0) {
+        return cached(template).formatDouble(p0);
+    }
+
+    /** Appends the formatted template to the builder. */
+    public static StringBuilder appendTo(StringBuilder sb, String template, Object... params) {
+        return cached(template).appendTo(sb, params);
+    }
+
+    public static <A extends Appendable> A appendTo(A out, String template, Object... params) {
+        return cached(template).appendTo(out, params);
+    }
+
+    /**
+     * Formats into a builder reused by the current thread. The result is valid only until
+     * the next call on the same thread, and must not be passed to other threads.
+     */
+    public static StringBuilder formatShared(String template, Object... params) {
+        return cached(template).appendTo(sharedBuilder(), params);
+    }
+
+    /**
+     * Encodes the formatted template as UTF-8 at the buffer position.
+     *
+     * @return number of bytes written
+     * @throws java.nio.BufferOverflowException if the buffer is too small, its position is left unchanged
+     */
+    public static int encodeTo(ByteBuffer buffer, String template, Object... params) {
+        return cached(template).encodeTo(buffer, params);
+    }
+
+    /** Captures the template and parameter to format on first {@code toString()}. */
+    public static LazyMessage lazy(String template, Object p0) {
+        return new LazyMessage(template, 1, p0, null, null, null);
+    }
+
+    public static LazyMessage lazy(String template, Object p0, Object p1) {
+        return new LazyMessage(template, 2, p0, p1, null, null);
+    }
+
+    public static LazyMessage lazy(String template, Object p0, Object p1, Object p2) {
+        return new LazyMessage(template, 3, p0, p1, p2, null);
+    }
+
+    public static LazyMessage lazy(String template, Object p0, Object p1, Object p2, Object p3) {
+        return new LazyMessage(template, 4, p0, p1, p2, p3);
+    }
+
+    public static LazyMessage lazy(String template, Object... params) {
+        return new LazyMessage(template, params);
+    }
+
+    /*
+     * One-parameter overloads capture primitives without boxing. The char and float ones are
+     * needed so that these arguments do not widen to long and double, which render differently.
+     * Unlike varargs, lazy(String, Object) still takes boxed arguments, so null is not unboxed.
+     */
+
+    public static LazyMessage lazy(String template, long p0) {
+        return new LazyMessage(template, 1, 'J', p0, 0);
+    }
+
+    public static LazyMessage lazy(String template, double p0) {
+        return new LazyMessage(template, 1, 'D', Double.doubleToRawLongBits(p0), 0);
+    }
+
+    public static LazyMessage lazy(String template, float p0) {
+        return new LazyMessage(template, 1, 'F', Float.floatToRawIntBits(p0), 0);
+    }
+
+    public static LazyMessage lazy(String template, char p0) {
+        return new LazyMessage(template, 1, 'C', p0, 0);
+    }
+
+    /*
+     * Two primitives are named rather than overloaded: lazy(String, long, long) would make
+     * calls mixing boxed and primitive arguments ambiguous or unbox them.
+     */
+
+    public static LazyMessage lazyLongs(String template, long p0, long p1) {
+        return new LazyMessage(template, 2, 'J', p0, p1);
+    }
+
+    public static LazyMessage lazyDoubles(String template, double p0, double p1) {
+        return new LazyMessage(template, 2, 'D', Double.doubleToRawLongBits(p0), Double.doubleToRawLongBits(p1));
+    }
+
+    /** Parses the template once, for formatting it many times. */
+    public static Template compile(String template) {
+        return new Template(template);
+    }
+
+    /**
+     * Returns the compiled template from the cache. Templates are usually constants,
+     * so identity is checked rather than equality, which would mean scanning the string.
+     * Templates built at runtime are a new instance on every call and always miss: an occupied
+     * slot is replaced only by a template seen twice in a row, so they do not evict constants.
+     * Format such templates with {@link #compile(String)} instead.
+     */
+    static Template cached(String template) {
+        int i = System.identityHashCode(template) & (CACHE.length - 1);
+        Template t = CACHE[i];
+        if (t != null && t.template == template)
+            return t;
+        Template compiled = new Template(template);
+        if (t == null || MISSED[i] == template)
+            CACHE[i] = compiled;
+        else
+            MISSED[i] = template;
+        return compiled;
+    }
+
+    /** Appends common boxed numbers without creating their strings. */
+    private static void append(StringBuilder sb, Object p) {
+        if (p instanceof Integer)
+            sb.append(((Integer) p).intValue());
+        else if (p instanceof Long)
+            sb.append(((Long) p).longValue());
+        else if (p instanceof Double)
+            sb.append(((Double) p).doubleValue());
+        else if (p instanceof Float)
+            sb.append(((Float) p).floatValue());
+        else if (p instanceof Short || p instanceof Byte)
+            sb.append(((Number) p).intValue());
+        else
+            sb.append(p);
+    }
+
+    private static void append(StringBuilder sb, char kind, long p) {
+        switch (kind) {
+            case 'D':
+                sb.append(Double.longBitsToDouble(p));
+                break;
+            case 'F':
+                sb.append(Float.intBitsToFloat((int) p));
                 break;
-            sb.append(template.substring(k, i)).append(p);
-            k = i + 2;
+            case 'C':
+                sb.append((char) p);
+                break;
+            default:
+                sb.append(p);
+        }
+    }
+
+    static StringBuilder sharedBuilder() {
+        StringBuilder sb = SHARED.get();
+        if (sb.capacity() > MAX_SHARED_CAPACITY) {
+            sb = new StringBuilder(256);
+            SHARED.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
+    /** Encodes like {@link String#getBytes(java.nio.charset.Charset)}, replacing unpaired surrogates with '?'. */
+    static int encodeUtf8(CharSequence chars, ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            for (int i = 0, n = chars.length(); i < n; i++) {
+                char c = chars.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    char low = i + 1 < n ? chars.charAt(i + 1) : 0;
+                    if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+                        int cp = Character.toCodePoint(c, low);
+                        buffer.put((byte) (0xf0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3f))
+                                .put((byte) (0x80 | cp >> 6 & 0x3f)).put((byte) (0x80 | cp & 0x3f));
+                        i++;
+                    } else {
+                        buffer.put((byte) '?');
+                    }
+                } else {
+                    buffer.put((byte) (0xe0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3f))
+                            .put((byte) (0x80 | c & 0x3f));
+                }
+            }
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
         }
-        sb.append(template.substring(k));
-        return sb.toString();
+        return buffer.position() - start;
     }
 
+    /** Renders the complete trace, like {@link Throwable#printStackTrace()}. */
     public static String stackTrace(Throwable throwable) {
-        StringWriter sw = new StringWriter();
-        throwable.printStackTrace(new PrintWriter(sw));
-        return sw.toString();
+        return StackTraceRenderer.UNBOUNDED.render(throwable);
+    }
+
+    /** Renders the trace with limited frames and depth of causes, see {@link StackTraceRenderer}. */
+    public static String stackTrace(Throwable throwable, int maxFrames, int maxCauses) {
+        return new StackTraceRenderer(maxFrames, maxCauses).render(throwable);
+    }
+
+
+    /**
+     * Template parsed into positions of its {@code {} } elements. Extra parameters
+     * are ignored, elements without parameters are left as they are.
+     */
+    public static final class Template {
+        private final String template;
+        private final int[] slots;
+
+        Template(String template) {
+            this.template = template;
+            int n = 0;
+            for (int i = template.indexOf("{}"); i != -1; i = template.indexOf("{}", i + 2))
+                n++;
+            slots = new int[n];
+            n = 0;
+            for (int i = template.indexOf("{}"); i != -1; i = template.indexOf("{}", i + 2))
+                slots[n++] = i;
+        }
+
+        public String format(Object... params) {
+            int capacity = template.length() + 16 * Math.min(params.length, slots.length);
+            return appendTo(new StringBuilder(capacity), params).toString();
+        }
+
+        public String formatLong(long p0) {
+            return format(1, 'J', p0, 0);
+        }
+
+        public String formatLongs(long p0, long p1) {
+            return format(2, 'J', p0, p1);
+        }
+
+        public String formatDouble(double p0) {
+            return format(1, 'D', Double.doubleToRawLongBits(p0), 0);
+        }
+
+        private String format(int count, char kind, long p0, long p1) {
+            if (slots.length == 0)
+                return template;
+            return appendTo(new StringBuilder(template.length() + 24 * count), count, kind, p0, p1).toString();
+        }
+
+        public StringBuilder appendTo(StringBuilder sb, Object... params) {
+            int k = 0;
+            for (int i = 0; i < params.length && i < slots.length; i++) {
+                append(sb.append(template, k, slots[i]), params[i]);
+                k = slots[i] + 2;
+            }
+            return sb.append(template, k, template.length());
+        }
+
+        public <A extends Appendable> A appendTo(A out, Object... params) {
+            if (out instanceof StringBuilder) {
+                appendTo((StringBuilder) out, params);
+                return out;
+            }
+            try {
+                int k = 0;
+                for (int i = 0; i < params.length && i < slots.length; i++) {
+                    out.append(template, k, slots[i]);
+                    Object p = params[i];
+                    out.append(p instanceof CharSequence ? (CharSequence) p : String.valueOf(p));
+                    k = slots[i] + 2;
+                }
+                out.append(template, k, template.length());
+                return out;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Formats up to four parameters without an array. */
+        StringBuilder appendTo(StringBuilder sb, int count, Object p0, Object p1, Object p2, Object p3) {
+            int k = 0;
+            for (int i = 0; i < count && i < slots.length; i++) {
+                append(sb.append(template, k, slots[i]), i == 0 ? p0 : i == 1 ? p1 : i == 2 ? p2 : p3);
+                k = slots[i] + 2;
+            }
+            return sb.append(template, k, template.length());
+        }
+
+        /**
+         * Formats up to two primitives of one type held in longs: {@code 'J'} for long,
+         * {@code 'D'} and {@code 'F'} for raw bits of double and float, {@code 'C'} for char.
+         */
+        StringBuilder appendTo(StringBuilder sb, int count, char kind, long p0, long p1) {
+            int k = 0;
+            for (int i = 0; i < count && i < slots.length; i++) {
+                append(sb.append(template, k, slots[i]), kind, i == 0 ? p0 : p1);
+                k = slots[i] + 2;
+            }
+            return sb.append(template, k, template.length());
+        }
+
+        /** See {@link StringFormatter#encodeTo(ByteBuffer, String, Object...)}. */
+        public int encodeTo(ByteBuffer buffer, Object... params) {
+            return encodeUtf8(appendTo(sharedBuilder(), params), buffer);
+        }
+
+        public String template() {
+            return template;
+        }
+
+        public String toString() {
+            return template;
+        }
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Copies large files channel to channel with {@link FileChannel#transferTo}, which lets the
+ * kernel move the data (sendfile, copy_file_range) without passing it through the heap.
+ * Small files go through {@link CopyStrategy#DEFAULT}. Keeps separate statistics for both paths.
+ *
+ * @author Pavel Erofeev
+ */
+public final class TransferCopyStrategy implements CopyStrategy {
+
+    private final long threshold;
+    private final Stats small = new Stats();
+    private final Stats large = new Stats();
+
+
+    TransferCopyStrategy(long threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public long copy(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+        long start = System.nanoTime();
+        if (attrs.size() < threshold) {
+            long bytes = DEFAULT.copy(source, target, attrs);
+            small.add(bytes, System.nanoTime() - start);
+            return bytes;
+        }
+        long bytes = transfer(source, target);
+        large.add(bytes, System.nanoTime() - start);
+        return bytes;
+    }
+
+    private static long transfer(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long n = in.transferTo(position, size - position, out);
+                if (n <= 0)
+                    break;
+                position += n;
+            }
+            return position;
+        }
+    }
+
+    public long threshold() {
+        return threshold;
+    }
+
+    /** Statistics of files below the threshold. */
+    public Stats small() {
+        return small;
+    }
+
+    /** Statistics of files copied with {@link FileChannel#transferTo}. */
+    public Stats large() {
+        return large;
+    }
+
+    public String toString() {
+        return "{threshold=" + threshold + ",small=" + small + ",large=" + large + '}';
+    }
+
+
+    public static final class Stats {
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private Stats() {}
+
+        void add(long bytes, long nanos) {
+            this.files.increment();
+            this.bytes.add(bytes);
+            this.nanos.add(nanos);
+        }
+
+        public long files() {
+            return files.sum();
+        }
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        /** Total time spent copying, summed over all threads. */
+        public long nanos() {
+            return nanos.sum();
+        }
+
+        /** Average throughput of a single copy. */
+        public double bytesPerSecond() {
+            long n = nanos();
+            return n == 0 ? 0 : bytes() * 1e9 / n;
+        }
+
+        public String toString() {
+            return "{files=" + files() + ",bytes=" + bytes() + ",nanos=" + nanos() + '}';
+        }
+    }
+}
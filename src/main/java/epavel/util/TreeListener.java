@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+
+/**
+ * Receives progress events of the {@link FileUtils} tree operations.
+ * Parallel operations call it from several threads at once.
+ *
+ * @author Pavel Erofeev
+ */
+public interface TreeListener {
+
+    TreeListener NONE = new TreeListener() {};
+
+    /** A directory was created (copy) or deleted (delete). */
+    default void onDirectory(Path dir) {}
+
+    /**
+     * A file was copied or deleted.
+     *
+     * @param bytes size of the file
+     * @param nanos time the operation took
+     */
+    default void onFile(Path file, long bytes, long nanos) {}
+
+    /** An operation on the path failed. */
+    default void onError(Path path, IOException e) {}
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static epavel.util.T2.T2;
+
+
+/**
+ * {@link TreeListener} that aggregates counters, throughput, a per-file latency histogram
+ * and the slowest files. Can be read while the operation is running. Current throughput
+ * is measured over the last {@value #WINDOW_SECONDS} seconds, so idle time before or
+ * between operations does not dilute it.
+ *
+ * @author Pavel Erofeev
+ */
+public final class TreeMetrics implements TreeListener {
+
+    private static final Comparator<T2<Path, Long>> BY_NANOS = Comparator.comparing(t -> t.b);
+
+    static final int WINDOW_SECONDS = 10;
+    private static final long SECOND = 1_000_000_000L;
+
+    private final long started = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder directories = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    /** Bucket {@code i} counts latencies in {@code [2^i, 2^(i+1))} nanoseconds. */
+    private final AtomicLongArray histogram = new AtomicLongArray(63);
+
+    private final int slowestLimit;
+    private final PriorityQueue<T2<Path, Long>> slowest;
+    private volatile long slowestThreshold = -1;
+
+    /** Per-second buckets of the throughput window, by second since creation modulo the window. */
+    private final long[] windowSeconds = new long[WINDOW_SECONDS];
+    private final long[] windowBytes = new long[WINDOW_SECONDS];
+    private final long[] windowFiles = new long[WINDOW_SECONDS];
+
+
+    public TreeMetrics() {
+        this(10);
+    }
+
+    /**
+     * @param slowestLimit number of slowest files to keep
+     */
+    public TreeMetrics(int slowestLimit) {
+        this.slowestLimit = slowestLimit;
+        this.slowest = new PriorityQueue<>(slowestLimit + 1, BY_NANOS);
+    }
+
+    @Override
+    public void onDirectory(Path dir) {
+        directories.increment();
+    }
+
+    @Override
+    public void onFile(Path file, long bytes, long nanos) {
+        files.increment();
+        this.bytes.add(bytes);
+        histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+        addToWindow(bytes, System.nanoTime() - started);
+        if (nanos > slowestThreshold)
+            addSlowest(file, nanos);
+    }
+
+    private synchronized void addSlowest(Path file, long nanos) {
+        slowest.add(T2(file, nanos));
+        if (slowest.size() > slowestLimit)
+            slowest.poll();
+        if (slowest.size() == slowestLimit)
+            slowestThreshold = slowest.peek().b;
+    }
+
+    void addToWindow(long bytes, long elapsed) {
+        long second = elapsed / SECOND;
+        int i = (int) (second % WINDOW_SECONDS);
+        synchronized (windowSeconds) {
+            if (windowSeconds[i] != second) {
+                windowSeconds[i] = second;
+                windowBytes[i] = 0;
+                windowFiles[i] = 0;
+            }
+            windowBytes[i] += bytes;
+            windowFiles[i]++;
+        }
+    }
+
+    @Override
+    public void onError(Path path, IOException e) {
+        errors.increment();
+    }
+
+    public long files() {
+        return files.sum();
+    }
+
+    public long directories() {
+        return directories.sum();
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    /** Bytes per second over the last {@value #WINDOW_SECONDS} seconds. */
+    public double bytesPerSecond() {
+        return bytesPerSecond(System.nanoTime() - started);
+    }
+
+    double bytesPerSecond(long elapsed) {
+        return windowRate(windowBytes, elapsed);
+    }
+
+    /** Files per second over the last {@value #WINDOW_SECONDS} seconds. */
+    public double filesPerSecond() {
+        return windowRate(windowFiles, System.nanoTime() - started);
+    }
+
+    /** Bytes per second since this object was created, including idle time. */
+    public double averageBytesPerSecond() {
+        long elapsed = System.nanoTime() - started;
+        return elapsed == 0 ? 0 : bytes() * 1e9 / elapsed;
+    }
+
+    /** Files per second since this object was created, including idle time. */
+    public double averageFilesPerSecond() {
+        long elapsed = System.nanoTime() - started;
+        return elapsed == 0 ? 0 : files() * 1e9 / elapsed;
+    }
+
+    /** Sums the buckets of the window ending at {@code elapsed}, the current second included. */
+    private double windowRate(long[] counts, long elapsed) {
+        long second = elapsed / SECOND;
+        long first = Math.max(0, second - WINDOW_SECONDS + 1);
+        long total = 0;
+        synchronized (windowSeconds) {
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (windowSeconds[i] >= first && windowSeconds[i] <= second)
+                    total += counts[i];
+            }
+        }
+        long span = elapsed - first * SECOND;
+        return span == 0 ? 0 : total * 1e9 / span;
+    }
+
+    /**
+     * Per-file latency histogram: element {@code i} is the number of files
+     * that took from {@code 2^i} to {@code 2^(i+1)} nanoseconds.
+     */
+    public long[] latencyHistogram() {
+        long[] result = new long[histogram.length()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = histogram.get(i);
+        return result;
+    }
+
+    /**
+     * Upper bound of the given latency percentile in nanoseconds, with the precision of
+     * {@link #latencyHistogram()} buckets.
+     *
+     * @param percentile from 0 to 100
+     */
+    public long latencyPercentile(double percentile) {
+        long[] h = latencyHistogram();
+        long total = 0;
+        for (long n : h)
+            total += n;
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < h.length; i++) {
+            seen += h[i];
+            if (seen >= rank && seen > 0)
+                return (1L << (i + 1)) - 1;
+        }
+        return 0;
+    }
+
+    /** The slowest files with their latencies in nanoseconds, slowest first. */
+    public synchronized List<T2<Path, Long>> slowest() {
+        List<T2<Path, Long>> result = new ArrayList<>(slowest);
+        result.sort(BY_NANOS.reversed());
+        return result;
+    }
+
+    public String toString() {
+        return "{files=" + files() + ",directories=" + directories() + ",bytes=" + bytes() +
+                ",errors=" + errors() + ",bytesPerSecond=" + (long) bytesPerSecond() + '}';
+    }
+}
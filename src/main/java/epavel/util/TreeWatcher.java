@@ -0,0 +1,357 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * Incremental change feed of a directory tree. Every directory of the tree, including ones
+ * created later, is registered with a {@link WatchService}. Events arriving within
+ * {@code coalesceMillis} of each other are merged per path and delivered as one batch,
+ * so a file created and then written is reported once as {@link Kind#CREATED}, and one
+ * created and deleted within a batch is not reported at all. If the watch service
+ * overflows, the affected subtree is rescanned and compared by modification time
+ * and size against the last known state.
+ * <p>
+ * The listener is called on the watcher thread; a listener that throws stops the feed.
+ * Directories report creation and deletion, modifications are reported for files only.
+ *
+ * @author Pavel Erofeev
+ */
+public final class TreeWatcher implements Closeable {
+
+    public enum Kind {CREATED, MODIFIED, DELETED}
+
+    public static final class Change {
+        public final Kind kind;
+        public final Path path;
+
+        Change(Kind kind, Path path) {
+            this.kind = kind;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Change)) return false;
+            Change that = (Change) o;
+            return kind == that.kind && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + path.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + path;
+        }
+    }
+
+
+    private final Path root;
+    private final long coalesceMillis;
+    private final Consumer<? super List<Change>> listener;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Set<Path> watched = new HashSet<>();
+    /** Last known state of the tree. */
+    private final Map<Path, Stamp> state = new HashMap<>();
+    /** Known entries of every directory in the state, so a subtree is found without scanning the state. */
+    private final Map<Path, Set<Path>> children = new HashMap<>();
+    private final Thread thread;
+
+
+    private TreeWatcher(Path root, long coalesceMillis, Consumer<? super List<Change>> listener) throws IOException {
+        this.root = root;
+        this.coalesceMillis = coalesceMillis;
+        this.listener = listener;
+        this.watcher = root.getFileSystem().newWatchService();
+        try {
+            Map<Path, Stamp> found = new HashMap<>();
+            scan(root, found);
+            found.forEach(this::record);
+        } catch (IOException | RuntimeException e) {
+            watcher.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "tree-watcher-" + root);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching the tree under {@code root}.
+     *
+     * @param coalesceMillis quiet period after which collected changes are delivered
+     * @param listener       receives non-empty batches of changes, in order
+     */
+    public static TreeWatcher watch(Path root, long coalesceMillis, Consumer<? super List<Change>> listener) {
+        try {
+            return new TreeWatcher(root, coalesceMillis, listener);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    @Override
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Map<Path, Kind> changes = new LinkedHashMap<>();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesceMillis * 10);
+                do {
+                    process(key, changes);
+                    key = watcher.poll(coalesceMillis, TimeUnit.MILLISECONDS);
+                } while (key != null && System.nanoTime() < deadline);
+                if (key != null)
+                    process(key, changes);
+                if (!changes.isEmpty())
+                    listener.accept(toList(changes));
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void process(WatchKey key, Map<Path, Kind> changes) {
+        Path dir = keys.get(key);
+        if (dir == null)
+            return;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan(dir, changes);
+                continue;
+            }
+            Path path = dir.resolve(event.context().toString());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+                deleted(path, changes);
+            else
+                updated(path, changes);
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            watched.remove(dir);
+            if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS))
+                deleted(dir, changes);
+        }
+    }
+
+    private void updated(Path path, Map<Path, Kind> changes) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            // gone already, its deletion event follows
+            return;
+        }
+        if (attrs.isDirectory()) {
+            if (!state.containsKey(path))
+                rescan(path, changes);
+            return;
+        }
+        // an event is reported even if the modification time stayed the same
+        Stamp previous = record(path, new Stamp(attrs));
+        merge(changes, path, previous == null ? Kind.CREATED : Kind.MODIFIED);
+    }
+
+    /** Forgets the path and, if it is a directory, everything under it. */
+    private void deleted(Path path, Map<Path, Kind> changes) {
+        Stamp previous = state.remove(path);
+        if (previous == null)
+            return;
+        merge(changes, path, Kind.DELETED);
+        Set<Path> siblings = children.get(path.getParent());
+        if (siblings != null)
+            siblings.remove(path);
+        if (previous == Stamp.DIRECTORY) {
+            Set<Path> entries = children.remove(path);
+            if (entries != null) {
+                for (Path child : entries)
+                    deleted(child, changes);
+            }
+        }
+    }
+
+    /** Puts the path into the state and its parent's entries, returning the previous value. */
+    private Stamp record(Path path, Stamp stamp) {
+        Stamp previous = state.put(path, stamp);
+        if (previous == null)
+            children.computeIfAbsent(path.getParent(), k -> new HashSet<>()).add(path);
+        return previous;
+    }
+
+    private void descendants(Path dir, List<Path> into) {
+        Set<Path> entries = children.get(dir);
+        if (entries == null)
+            return;
+        for (Path path : entries) {
+            into.add(path);
+            descendants(path, into);
+        }
+    }
+
+    /** Compares the subtree with the last known state, registering new directories. */
+    private void rescan(Path dir, Map<Path, Kind> changes) {
+        Map<Path, Stamp> found = new HashMap<>();
+        try {
+            scan(dir, found);
+        } catch (IOException e) {
+            // the directory is gone, its deletion event follows
+        }
+        List<Path> known = new ArrayList<>();
+        descendants(dir, known);
+        for (Path path : known) {
+            if (!found.containsKey(path))
+                deleted(path, changes);
+        }
+        for (Map.Entry<Path, Stamp> e : found.entrySet()) {
+            Stamp previous = record(e.getKey(), e.getValue());
+            if (previous == null)
+                merge(changes, e.getKey(), Kind.CREATED);
+            else if (!previous.equals(e.getValue()) && e.getValue() != Stamp.DIRECTORY)
+                merge(changes, e.getKey(), Kind.MODIFIED);
+        }
+    }
+
+    /** Walks the subtree registering its directories and collecting their entries into {@code found}. */
+    private void scan(Path dir, Map<Path, Stamp> found) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                if (watched.add(d))
+                    keys.put(d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), d);
+                found.put(d, Stamp.DIRECTORY);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                found.put(file, new Stamp(attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // vanished while scanning
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void merge(Map<Path, Kind> changes, Path path, Kind kind) {
+        Kind previous = changes.remove(path);
+        if (previous == null)
+            changes.put(path, kind);
+        else if (previous == Kind.CREATED && kind != Kind.DELETED)
+            changes.put(path, Kind.CREATED);
+        else if (previous == Kind.DELETED && kind == Kind.CREATED)
+            changes.put(path, Kind.MODIFIED);
+        else if (previous != Kind.CREATED)
+            changes.put(path, kind);
+        // created and deleted within the batch: nothing to report
+    }
+
+    private static List<Change> toList(Map<Path, Kind> changes) {
+        List<Change> list = new ArrayList<>(changes.size());
+        for (Map.Entry<Path, Kind> e : changes.entrySet())
+            list.add(new Change(e.getValue(), e.getKey()));
+        return list;
+    }
+
+    public String toString() {
+        return "TreeWatcher{" + root + '}';
+    }
+
+
+    /** Modification time and size of a file, compared when a rescan cannot rely on events. */
+    private static final class Stamp {
+        static final Stamp DIRECTORY = new Stamp(-1, -1);
+
+        final long modified;
+        final long size;
+
+        Stamp(BasicFileAttributes attrs) {
+            this(attrs.lastModifiedTime().toMillis(), attrs.size());
+        }
+
+        private Stamp(long modified, long size) {
+            this.modified = modified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Stamp)) return false;
+            Stamp that = (Stamp) o;
+            return modified == that.modified && size == that.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(modified) + Long.hashCode(size);
+        }
+    }
+}
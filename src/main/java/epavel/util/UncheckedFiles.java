@@ -50,8 +50,11 @@ import java.nio.file.attribute.UserPrincipal;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.BiPredicate;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -452,6 +455,18 @@ public final class UncheckedFiles {
         }
     }
 
+    /**
+     * Reads all bytes, failing before reading anything if the file is larger than {@code maxSize}.
+     */
+    public static byte[] readAllBytes(Path path, long maxSize) {
+        try {
+            FileChunks.checkSize(path, Files.size(path), maxSize);
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static List<String> readAllLines(Path path, Charset cs) {
         try {
             return Files.readAllLines(path, cs);
@@ -468,6 +483,18 @@ public final class UncheckedFiles {
         }
     }
 
+    /**
+     * Reads all lines, failing before reading anything if the file is larger than {@code maxSize} bytes.
+     */
+    public static List<String> readAllLines(Path path, Charset cs, long maxSize) {
+        try {
+            FileChunks.checkSize(path, Files.size(path), maxSize);
+            return Files.readAllLines(path, cs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static Path write(Path path, byte[] bytes, OpenOption... options) {
         try {
             return Files.write(path, bytes, options);
@@ -516,6 +543,26 @@ public final class UncheckedFiles {
         }
     }
 
+    /**
+     * Walks the tree like {@link #walk(Path, int, FileVisitOption...)} returning every path
+     * with the attributes read by the traversal, so they need not be read again.
+     */
+    public static Stream<T2<Path, BasicFileAttributes>> walkWithAttributes(Path start, int maxDepth,
+                                                                          FileVisitOption... options) {
+        try {
+            AttributeWalker walker = new AttributeWalker(start, maxDepth, options);
+            Spliterator<T2<Path, BasicFileAttributes>> spliterator =
+                    Spliterators.spliteratorUnknownSize(walker, Spliterator.DISTINCT | Spliterator.NONNULL);
+            return StreamSupport.stream(spliterator, false).onClose(walker::close);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Stream<T2<Path, BasicFileAttributes>> walkWithAttributes(Path start, FileVisitOption... options) {
+        return walkWithAttributes(start, Integer.MAX_VALUE, options);
+    }
+
     public static Stream<Path> find(Path start, int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher,
                                     FileVisitOption... options)
     {
@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import com.google.common.jimfs.Jimfs;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class AsyncFilesTest {
+
+    private FileSystem fs = Jimfs.newFileSystem();
+
+    private Path file = fs.getPath("/file");
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        byte[] bytes = new byte[300_000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) i;
+
+        assertEquals(file, AsyncFiles.write(file, bytes).get());
+        AsyncFiles.write(file, new byte[] {1, 2}, StandardOpenOption.APPEND).get();
+
+        byte[] read = AsyncFiles.readAllBytes(file).get();
+        assertEquals(bytes.length + 2, read.length);
+        assertEquals(2, read[read.length - 1]);
+        assertArrayEquals(bytes, Arrays.copyOf(read, bytes.length));
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        Files.write(file, "content".getBytes());
+        Path copy = fs.getPath("/copy");
+
+        AsyncFiles.copy(file, copy).get();
+
+        assertEquals(7L, (long) AsyncFiles.size(copy).get());
+        BasicFileAttributes attrs = AsyncFiles.readAttributes(copy, BasicFileAttributes.class).get();
+        assertTrue(attrs.isRegularFile());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        try {
+            AsyncFiles.readAllBytes(fs.getPath("/missing")).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UncheckedIOException);
+            assertTrue(e.getCause().getCause() instanceof NoSuchFileException);
+        }
+        try {
+            AsyncFiles.size(fs.getPath("/missing")).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UncheckedIOException);
+        }
+    }
+
+    @Test
+    public void testFailureShape() throws Exception {
+        Path missing = fs.getPath("/missing");
+        Path orphan = fs.getPath("/no/such/dir/file");
+        assertFailsUnchecked(AsyncFiles.readAllBytes(missing));
+        assertFailsUnchecked(AsyncFiles.write(orphan, new byte[1]));
+        assertFailsUnchecked(AsyncFiles.copy(missing, file));
+        assertFailsUnchecked(AsyncFiles.size(missing));
+        assertFailsUnchecked(AsyncFiles.readAttributes(missing, BasicFileAttributes.class));
+    }
+
+    private static void assertFailsUnchecked(CompletableFuture<?> future) throws Exception {
+        // handle sees the exception the future was completed with, without CompletionException
+        Throwable failure = future.handle((result, e) -> e).get();
+        assertTrue(String.valueOf(failure), failure instanceof UncheckedIOException);
+        assertTrue(failure.getCause() instanceof NoSuchFileException);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class ConcurrentWalkerTest {
+
+    private FileSystem fs = Jimfs.newFileSystem();
+
+    private Path root = fs.getPath("/root");
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            Path dir = root.resolve("dir" + i).resolve("sub");
+            Files.createDirectories(dir);
+            for (int j = 0; j < 20; j++)
+                Files.write(dir.resolve("file" + j + (j % 2 == 0 ? ".txt" : ".bin")), new byte[j]);
+        }
+    }
+
+    private Set<Path> expected(int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher) throws IOException {
+        try (Stream<Path> stream = Files.find(root, maxDepth, matcher)) {
+            return stream.collect(Collectors.toSet());
+        }
+    }
+
+    @Test
+    public void testFind() throws IOException {
+        BiPredicate<Path, BasicFileAttributes> matcher = (p, attrs) -> p.toString().endsWith(".txt");
+
+        Set<Path> found;
+        try (Stream<Path> stream = ConcurrentWalker.find(root, Integer.MAX_VALUE, matcher, 4)) {
+            found = stream.collect(Collectors.toSet());
+        }
+
+        assertEquals(100, found.size());
+        assertEquals(expected(Integer.MAX_VALUE, matcher), found);
+    }
+
+    @Test
+    public void testWalkMaxDepth() throws IOException {
+        Set<Path> found;
+        try (Stream<Path> stream = ConcurrentWalker.walk(root, 2, 3)) {
+            found = stream.collect(Collectors.toSet());
+        }
+
+        assertEquals(expected(2, (p, attrs) -> true), found);
+        assertTrue(found.contains(root));
+    }
+
+    @Test
+    public void testEarlyClose() {
+        try (Stream<Path> stream = ConcurrentWalker.walk(root, Integer.MAX_VALUE, 2)) {
+            assertEquals(5, stream.limit(5).count());
+        }
+    }
+
+    @Test
+    public void testForEach() throws IOException {
+        Set<Path> found = ConcurrentHashMap.newKeySet();
+
+        ConcurrentWalker.forEach(root, Integer.MAX_VALUE, (p, attrs) -> attrs.isDirectory(), 4, found::add);
+
+        assertEquals(expected(Integer.MAX_VALUE, (p, attrs) -> attrs.isDirectory()), found);
+    }
+
+    @Test
+    public void testMissing() {
+        try {
+            ConcurrentWalker.walk(fs.getPath("/missing"), 1, 1);
+            fail();
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class DirectoryPagesTest {
+
+    private FileSystem fs = Jimfs.newFileSystem();
+
+    private Path dir = fs.getPath("/dir");
+
+    private List<Path> expected;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 0; i < 10; i++)
+            Files.createFile(dir.resolve("file" + i));
+        try (Stream<Path> list = Files.list(dir)) {
+            expected = list.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testPages() {
+        List<Path> listed = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        try (DirectoryPages pages = DirectoryPages.open(dir, 3)) {
+            while (pages.hasNext()) {
+                DirectoryPages.Page page = pages.next();
+                listed.addAll(page.entries());
+                sizes.add(page.entries().size());
+                assertEquals(listed.size(), page.cursor());
+            }
+        }
+        assertEquals(expected, listed);
+        assertEquals(4, sizes.size());
+        assertEquals(1, (int) sizes.get(3));
+    }
+
+    @Test
+    public void testResume() {
+        long cursor;
+        try (DirectoryPages pages = DirectoryPages.open(dir, 4)) {
+            pages.next();
+            cursor = pages.next().cursor();
+        }
+        assertEquals(8, cursor);
+        try (DirectoryPages pages = DirectoryPages.open(dir, 4, cursor)) {
+            DirectoryPages.Page page = pages.next();
+            assertEquals(expected.subList(8, 10), page.entries());
+            assertTrue(page.isLast());
+            assertFalse(pages.hasNext());
+        }
+    }
+
+    @Test
+    public void testExactPages() {
+        try (DirectoryPages pages = DirectoryPages.open(dir, 5)) {
+            assertFalse(pages.next().isLast());
+            assertTrue(pages.next().isLast());
+            assertFalse(pages.hasNext());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        Path empty = Files.createDirectory(fs.getPath("/empty"));
+        try (DirectoryPages pages = DirectoryPages.open(empty, 5)) {
+            DirectoryPages.Page page = pages.next();
+            assertTrue(page.entries().isEmpty());
+            assertTrue(page.isLast());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageSize() {
+        DirectoryPages.open(dir, 0);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import com.google.common.jimfs.Jimfs;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class FileAttributeCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystem fs = Jimfs.newFileSystem();
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        Path file = fs.getPath("/file");
+        Files.write(file, "12345".getBytes());
+        try (FileAttributeCache cache = new FileAttributeCache(10, 1, TimeUnit.HOURS)) {
+            assertEquals(5, cache.size(file));
+            assertTrue(cache.exists(file));
+            assertFalse(cache.isDirectory(file));
+            assertTrue(cache.isRegularFile(file));
+            assertEquals(1, cache.misses());
+            assertEquals(3, cache.hits());
+
+            assertFalse(cache.exists(fs.getPath("/missing")));
+            assertFalse(cache.exists(fs.getPath("/missing")));
+            assertEquals(2, cache.misses());
+            try {
+                cache.readAttributes(fs.getPath("/missing"));
+                fail();
+            } catch (UncheckedIOException e) {
+                assertTrue(e.getCause() instanceof NoSuchFileException);
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        Path file = fs.getPath("/file");
+        Files.write(file, "12345".getBytes());
+        try (FileAttributeCache cache = new FileAttributeCache(10, 1, TimeUnit.HOURS)) {
+            assertEquals(5, cache.size(file));
+            Files.write(file, "1".getBytes());
+            cache.invalidate(file);
+            assertEquals(1, cache.size(file));
+        }
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        Path file = fs.getPath("/file");
+        Files.write(file, "12345".getBytes());
+        try (FileAttributeCache cache = new FileAttributeCache(10, 1, TimeUnit.MILLISECONDS)) {
+            assertEquals(5, cache.size(file));
+            Files.write(file, "1".getBytes());
+            Thread.sleep(5);
+            assertEquals(1, cache.size(file));
+            assertEquals(2, cache.misses());
+        }
+    }
+
+    @Test
+    public void testLruEviction() throws IOException {
+        try (FileAttributeCache cache = new FileAttributeCache(2, 1, TimeUnit.HOURS)) {
+            cache.exists(fs.getPath("/a"));
+            cache.exists(fs.getPath("/b"));
+            cache.exists(fs.getPath("/a"));
+            cache.exists(fs.getPath("/c"));
+            assertEquals(2, cache.size());
+            assertEquals(3, cache.misses());
+
+            cache.exists(fs.getPath("/a"));
+            assertEquals(3, cache.misses());
+            cache.exists(fs.getPath("/b"));
+            assertEquals(4, cache.misses());
+        }
+    }
+
+    @Test
+    public void testEvictionStopsWatching() throws IOException {
+        try (FileAttributeCache cache = new FileAttributeCache(2, 1, TimeUnit.HOURS)) {
+            for (int i = 0; i < 10; i++) {
+                Path dir = Files.createDirectory(fs.getPath("/dir" + i));
+                cache.exists(dir.resolve("file"));
+                cache.exists(dir.resolve("other"));
+            }
+            assertEquals(1, cache.watchedDirectories());
+
+            cache.exists(fs.getPath("/dir0/file"));
+            assertEquals(2, cache.watchedDirectories());
+            cache.invalidate(fs.getPath("/dir0/file"));
+            assertEquals(1, cache.watchedDirectories());
+            cache.invalidateAll();
+            assertEquals(0, cache.watchedDirectories());
+        }
+    }
+
+    @Test
+    public void testWatchInvalidates() throws Exception {
+        Path file = folder.newFile("file").toPath();
+        Files.write(file, "12345".getBytes());
+        try (FileAttributeCache cache = new FileAttributeCache(10, 1, TimeUnit.HOURS)) {
+            assertEquals(5, cache.size(file));
+            Files.write(file, "1".getBytes());
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (cache.size(file) != 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(1, cache.size(file));
+
+            Files.delete(file);
+            while (cache.exists(file) && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertFalse(cache.exists(file));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class FileChunksTest {
+
+    private FileSystem fs = Jimfs.newFileSystem();
+
+    private Path file = fs.getPath("/data");
+
+    private byte[] content = new byte[10_000];
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) (i * 31);
+        Files.write(file, content);
+    }
+
+    @Test
+    public void testForEach() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Integer> sizes = new ArrayList<>();
+
+        FileChunks.forEach(file, 4096, chunk -> {
+            sizes.add(chunk.remaining());
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            out.write(bytes, 0, bytes.length);
+        });
+
+        assertEquals(Arrays.asList(4096, 4096, 1808), sizes);
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void testIterator() {
+        long sum = 0;
+        int chunks = 0;
+        try (FileChunks.ChunkIterator it = FileChunks.iterator(file, 5000)) {
+            while (it.hasNext()) {
+                ByteBuffer chunk = it.next();
+                assertEquals(5000, chunk.remaining());
+                while (chunk.hasRemaining())
+                    sum += chunk.get();
+                chunks++;
+            }
+            assertFalse(it.hasNext());
+        }
+
+        long expected = 0;
+        for (byte b : content)
+            expected += b;
+        assertEquals(expected, sum);
+        assertEquals(2, chunks);
+    }
+
+    @Test
+    public void testSizeGuard() {
+        try {
+            FileChunks.forEach(file, 4096, 9_999, chunk -> fail());
+            fail();
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof FileSystemException);
+        }
+        try {
+            UncheckedFiles.readAllBytes(file, 1000);
+            fail();
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof FileSystemException);
+        }
+        assertArrayEquals(content, UncheckedFiles.readAllBytes(file, 10_000));
+    }
+}
@@ -29,13 +29,31 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -78,6 +96,25 @@ public class FileUtilsTest {
         assertFalse(Files.exists(fileBPath));
     }
 
+    @Test
+    public void testDeleteDirectoriesParallel() {
+        FileUtils.deleteDirectories(path, 2);
+
+        assertFalse(Files.exists(path));
+        assertFalse(Files.exists(dirAPath));
+        assertFalse(Files.exists(fileBPath));
+    }
+
+    @Test
+    public void testDeleteDirectoriesParallelManyFiles() throws IOException {
+        for (int i = 0; i < 300; i++)
+            Files.write(dirBPath.resolve("file" + i), new byte[] {(byte) i});
+
+        FileUtils.deleteDirectories(path, 3);
+
+        assertFalse(Files.exists(path));
+    }
+
     @Test
     public void testCopyDirectoriesSameFS() throws IOException {
         Path dest = fs1.getPath("target");
@@ -113,4 +150,331 @@ public class FileUtilsTest {
         String cb = new String(Files.readAllBytes(dest.resolve(fileB)));
         assertEquals("content of file B", cb);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCopyDirectoriesParallel() throws IOException {
+        Path dest = fs2.getPath("target");
+
+        FileUtils.copyDirectories(path, dest, 4);
+
+        assertTrue(Files.exists(dest.resolve(dirA)));
+        assertTrue(Files.exists(dest.resolve(dirB)));
+
+        String ca = new String(Files.readAllBytes(dest.resolve(fileA)));
+        assertEquals("content of file A", ca);
+
+        String cb = new String(Files.readAllBytes(dest.resolve(fileB)));
+        assertEquals("content of file B", cb);
+    }
+
+    @Test
+    public void testCopyDirectoriesParallelCollectsErrors() throws IOException {
+        Path dest = fs2.getPath("target");
+        Files.createDirectories(dest.resolve("other/directory/tree"));
+        Files.write(dest.resolve(fileA), "existing".getBytes());
+        Files.write(dest.resolve(fileB), "existing".getBytes());
+
+        try {
+            FileUtils.copyDirectories(path, dest, 4);
+            fail();
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof FileAlreadyExistsException);
+            assertEquals(1, e.getSuppressed().length);
+        }
+        assertTrue(Files.exists(dest.resolve(dirB)));
+    }
+
+    @Test
+    public void testCopyDirectoriesTransfer() throws IOException {
+        Path dest = fs2.getPath("target");
+        byte[] big = new byte[100_000];
+        for (int i = 0; i < big.length; i++)
+            big[i] = (byte) i;
+        Files.write(dirAPath.resolve("big"), big);
+        TransferCopyStrategy strategy = CopyStrategy.transferAbove(1024);
+
+        FileUtils.copyDirectories(path, dest, strategy);
+
+        assertArrayEquals(big, Files.readAllBytes(dest.resolve(dirA).resolve("big")));
+        assertEquals("content of file A", new String(Files.readAllBytes(dest.resolve(fileA))));
+        assertEquals(1, strategy.large().files());
+        assertEquals(big.length, strategy.large().bytes());
+        assertEquals(2, strategy.small().files());
+    }
+
+    @Test
+    public void testSyncDirectories() throws IOException {
+        Path dest = fs2.getPath("target");
+        FileUtils.copyDirectories(path, dest);
+        Files.setLastModifiedTime(dest.resolve(fileA), Files.getLastModifiedTime(fileAPath));
+        Files.setLastModifiedTime(dest.resolve(fileB), Files.getLastModifiedTime(fileBPath));
+        Files.write(dest.resolve("extra"), "extra".getBytes());
+        Files.write(fileBPath, "changed content of file B".getBytes());
+        // same size and time: must be skipped
+        Files.write(dest.resolve(fileA), "CONTENT OF FILE A".getBytes());
+        Files.setLastModifiedTime(dest.resolve(fileA), Files.getLastModifiedTime(fileAPath));
+
+        FileUtils.syncDirectories(path, dest, false);
+
+        assertEquals("CONTENT OF FILE A", new String(Files.readAllBytes(dest.resolve(fileA))));
+        assertEquals("changed content of file B", new String(Files.readAllBytes(dest.resolve(fileB))));
+        assertEquals(Files.getLastModifiedTime(fileBPath), Files.getLastModifiedTime(dest.resolve(fileB)));
+        assertTrue(Files.exists(dest.resolve("extra")));
+
+        FileUtils.syncDirectories(path, dest, true);
+
+        assertFalse(Files.exists(dest.resolve("extra")));
+        assertTrue(Files.exists(dest.resolve(dirB)));
+    }
+
+    @Test
+    public void testSyncDirectoriesDeduplicatingKeepsReference() throws IOException {
+        Path previous = fs1.getPath("previous");
+        Files.createDirectories(previous.resolve("moved"));
+        Path reference = Files.write(previous.resolve("moved/a"), "content of file A".getBytes());
+        FileTime referenceTime = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(reference, referenceTime);
+        Path dest = fs1.getPath("target");
+        DeduplicatingCopyStrategy strategy = CopyStrategy.deduplicating(previous, CopyStrategy.DEFAULT);
+
+        FileUtils.syncDirectories(path, dest, false, strategy);
+
+        assertTrue(Files.isSameFile(reference, dest.resolve(fileA)));
+        assertEquals(referenceTime, Files.getLastModifiedTime(reference));
+        assertEquals(Files.getLastModifiedTime(fileBPath), Files.getLastModifiedTime(dest.resolve(fileB)));
+    }
+
+    @Test
+    public void testCopyDirectoriesDeduplicating() throws IOException {
+        Path previous = fs1.getPath("previous");
+        Files.createDirectories(previous.resolve("moved"));
+        Files.write(previous.resolve("moved/a"), "content of file A".getBytes());
+        Files.write(previous.resolve("b"), "content of file X".getBytes());
+        Path dest = fs1.getPath("target");
+        DeduplicatingCopyStrategy strategy = CopyStrategy.deduplicating(previous, CopyStrategy.DEFAULT);
+
+        FileUtils.copyDirectories(path, dest, strategy);
+
+        assertTrue(Files.isSameFile(previous.resolve("moved/a"), dest.resolve(fileA)));
+        assertFalse(Files.isSameFile(previous.resolve("b"), dest.resolve(fileB)));
+        assertEquals("content of file B", new String(Files.readAllBytes(dest.resolve(fileB))));
+        assertEquals(1, strategy.linkedFiles());
+    }
+
+    @Test
+    public void testCopyDirectoriesMetrics() {
+        Path dest = fs2.getPath("target");
+        TreeMetrics metrics = new TreeMetrics(1);
+
+        FileUtils.copyDirectories(path, dest, CopyStrategy.DEFAULT, metrics);
+
+        assertEquals(2, metrics.files());
+        assertEquals(5, metrics.directories());
+        assertEquals(34, metrics.bytes());
+        assertEquals(0, metrics.errors());
+        assertEquals(1, metrics.slowest().size());
+        assertTrue(metrics.latencyPercentile(100) >= metrics.slowest().get(0).b);
+
+        TreeMetrics deleteMetrics = new TreeMetrics();
+        FileUtils.deleteDirectories(dest, ForkJoinPool.commonPool(), 2, deleteMetrics);
+
+        assertEquals(2, deleteMetrics.files());
+        assertEquals(5, deleteMetrics.directories());
+        assertEquals(2, deleteMetrics.slowest().size());
+    }
+
+    @Test
+    public void testMetricsThroughputWindow() {
+        TreeMetrics metrics = new TreeMetrics();
+        long second = 1_000_000_000L;
+        metrics.addToWindow(1000, 0);
+        metrics.addToWindow(1000, second + second / 2);
+        assertEquals(1000, metrics.bytesPerSecond(2 * second), 0.001);
+
+        // idle long enough for the window to pass, then a burst
+        assertEquals(0, metrics.bytesPerSecond(30 * second), 0.001);
+        metrics.addToWindow(9000, 100 * second + second / 2);
+        assertEquals(1000, metrics.bytesPerSecond(101 * second), 0.001);
+    }
+
+    @Test
+    public void testCopyDirectoriesAsync() throws Exception {
+        Path dest = fs2.getPath("target");
+
+        FileUtils.copyDirectoriesAsync(path, dest, ForkJoinPool.commonPool()).get();
+
+        assertEquals("content of file B", new String(Files.readAllBytes(dest.resolve(fileB))));
+
+        FileUtils.deleteDirectoriesAsync(dest, ForkJoinPool.commonPool()).get();
+
+        assertFalse(Files.exists(dest));
+    }
+
+    @Test
+    public void testCopyDirectoriesAsyncCancel() throws Exception {
+        Path dest = fs2.getPath("target");
+        CountDownLatch copied = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicInteger files = new AtomicInteger();
+        // holds the walk after its first file until the future is cancelled
+        TreeListener blocking = new TreeListener() {
+            @Override
+            public void onFile(Path file, long bytes, long nanos) {
+                files.incrementAndGet();
+                copied.countDown();
+                try {
+                    cancelled.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        CompletableFuture<Void> future = FileUtils.copyDirectoriesAsync(path, dest, CopyStrategy.DEFAULT, blocking,
+                executor);
+        copied.await();
+        assertTrue(future.cancel(false));
+        cancelled.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        try {
+            future.join();
+            fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+        // the walk stopped before the next entry
+        assertEquals(1, files.get());
+        try (Stream<Path> walk = Files.walk(dest)) {
+            assertEquals(1, walk.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void testPublishDirectories() throws Exception {
+        Path dest = fs2.getPath("/pub/published");
+        Files.createDirectories(dest.resolve("stale"));
+
+        FileUtils.publishDirectories(path, dest, true, ForkJoinPool.commonPool()).get();
+
+        assertEquals("content of file A", new String(Files.readAllBytes(dest.resolve(fileA))));
+        assertFalse(Files.exists(dest.resolve("stale")));
+        try (Stream<Path> siblings = Files.list(fs2.getPath("/pub"))) {
+            assertEquals(1, siblings.count());
+        }
+    }
+
+    @Test
+    public void testPublishDirectoriesClearsStaleOld() throws Exception {
+        // a previous publish swapped the trees but did not clean up the old one
+        Path dest = fs2.getPath("/pub/published");
+        Files.createDirectories(dest.resolve("current"));
+        Files.createDirectories(fs2.getPath("/pub/.published.old/stale"));
+
+        FileUtils.publishDirectories(path, dest, false, ForkJoinPool.commonPool()).get();
+
+        assertEquals("content of file A", new String(Files.readAllBytes(dest.resolve(fileA))));
+        assertFalse(Files.exists(dest.resolve("current")));
+        try (Stream<Path> siblings = Files.list(fs2.getPath("/pub"))) {
+            assertEquals(1, siblings.count());
+        }
+    }
+
+    @Test
+    public void testPublishDirectoriesRecoversInterruptedSwap() throws Exception {
+        // a crash between the two moves left the previous tree aside and no target
+        Path dest = fs2.getPath("/pub/published");
+        Files.createDirectories(fs2.getPath("/pub/.published.old/kept"));
+
+        try {
+            FileUtils.publishDirectories(fs2.getPath("/missing"), dest, false, ForkJoinPool.commonPool());
+            fail();
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        assertTrue(Files.isDirectory(dest.resolve("kept")));
+
+        Files.createDirectories(fs2.getPath("/pub/.published.old/stale"));
+        FileUtils.publishDirectories(path, dest, false, ForkJoinPool.commonPool()).get();
+
+        assertEquals("content of file A", new String(Files.readAllBytes(dest.resolve(fileA))));
+        assertFalse(Files.exists(dest.resolve("kept")));
+        try (Stream<Path> siblings = Files.list(fs2.getPath("/pub"))) {
+            assertEquals(1, siblings.count());
+        }
+    }
+
+    @Test
+    public void testCopyDirectoriesSparse() throws IOException {
+        Path dest = fs2.getPath("target");
+        byte[] sparse = new byte[40_000];
+        sparse[5000] = 1;
+        sparse[39_999] = 2;
+        Files.write(dirBPath.resolve("sparse"), sparse);
+        Files.write(dirBPath.resolve("zeros"), new byte[10_000]);
+        SparseCopyStrategy strategy = CopyStrategy.sparse(4096);
+
+        FileUtils.copyDirectories(path, dest, strategy);
+
+        assertArrayEquals(sparse, Files.readAllBytes(dest.resolve(dirB).resolve("sparse")));
+        assertArrayEquals(new byte[10_000], Files.readAllBytes(dest.resolve(dirB).resolve("zeros")));
+        assertEquals("content of file A", new String(Files.readAllBytes(dest.resolve(fileA))));
+        // all blocks but the two with data
+        assertEquals(8 * 4096 + 10_000, strategy.skippedBytes());
+    }
+
+    @Test
+    public void testCopyDirectoriesFiltered() {
+        Path dest = fs2.getPath("target");
+        List<Path> visited = new ArrayList<>();
+        BiPredicate<Path, BasicFileAttributes> filter = (p, attrs) -> {
+            visited.add(p);
+            return !p.getFileName().toString().equals("directory");
+        };
+
+        FileUtils.copyDirectories(path, dest, filter, Integer.MAX_VALUE);
+
+        assertTrue(Files.exists(dest.resolve(fileA)));
+        assertTrue(Files.exists(dest.resolve(dirB)));
+        assertFalse(Files.exists(dest.resolve("other/directory")));
+        assertFalse(visited.contains(dirAPath));
+
+        Path parallelDest = fs2.getPath("parallel");
+        FileUtils.copyDirectories(path, parallelDest, filter, Integer.MAX_VALUE, CopyStrategy.DEFAULT,
+                TreeListener.NONE, ForkJoinPool.commonPool());
+
+        assertTrue(Files.exists(parallelDest.resolve(fileA)));
+        assertFalse(Files.exists(parallelDest.resolve("other/directory")));
+    }
+
+    @Test
+    public void testCopyDirectoriesMaxDepth() {
+        Path dest = fs2.getPath("target");
+
+        FileUtils.copyDirectories(path, dest, (p, attrs) -> true, 2);
+
+        assertTrue(Files.exists(dest.resolve(fileA)));
+        assertTrue(Files.isDirectory(dest.resolve("other/directory")));
+        assertFalse(Files.exists(dest.resolve("other/directory/tree")));
+
+        Path parallelDest = fs2.getPath("parallel");
+        FileUtils.copyDirectories(path, parallelDest, (p, attrs) -> true, 2, CopyStrategy.DEFAULT,
+                TreeListener.NONE, ForkJoinPool.commonPool());
+
+        assertTrue(Files.exists(parallelDest.resolve(fileA)));
+        assertTrue(Files.isDirectory(parallelDest.resolve("other/directory")));
+        assertFalse(Files.exists(parallelDest.resolve("other/directory/tree")));
+    }
+
+    @Test
+    public void testDeleteDirectoriesFiltered() {
+        FileUtils.deleteDirectories(path, (p, attrs) -> !p.getFileName().toString().equals("tree"),
+                Integer.MAX_VALUE);
+
+        assertFalse(Files.exists(fileAPath));
+        assertFalse(Files.exists(dirBPath));
+        assertTrue(Files.exists(fileBPath));
+    }
+}
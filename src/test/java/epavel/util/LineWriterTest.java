@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import com.google.common.jimfs.Jimfs;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class LineWriterTest {
+
+    private FileSystem fs = Jimfs.newFileSystem();
+
+    private Path file = fs.getPath("/report");
+
+    @Test
+    public void testWrite() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++)
+            lines.add("line number " + i + " \u0434\u0430");
+
+        LineWriter.write(file, lines, StandardCharsets.UTF_8, LineWriter.Durability.periodic(1));
+
+        assertEquals(lines, Files.readAllLines(file));
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        Files.write(file, Arrays.asList("first"));
+
+        try (LineWriter writer = LineWriter.open(file, StandardCharsets.UTF_8, LineWriter.Durability.ON_CLOSE,
+                StandardOpenOption.APPEND)) {
+            writer.write(new StringBuilder("second")).write("");
+        }
+
+        assertEquals(Arrays.asList("first", "second", ""), Files.readAllLines(file));
+    }
+
+    @Test
+    public void testTruncate() throws IOException {
+        Files.write(file, Arrays.asList("some old long content"));
+
+        LineWriter.write(file, Arrays.asList("new"), StandardCharsets.UTF_8, LineWriter.Durability.NONE);
+
+        assertEquals(Arrays.asList("new"), Files.readAllLines(file));
+    }
+
+    @Test
+    public void testWriteAfterClose() throws IOException {
+        LineWriter writer = LineWriter.open(file, StandardCharsets.UTF_8, LineWriter.Durability.NONE);
+        writer.write("only");
+        writer.close();
+
+        try {
+            writer.write("late");
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            writer.flush();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        writer.close();
+        assertEquals(Arrays.asList("only"), Files.readAllLines(file));
+    }
+
+    @Test
+    public void testUnmappable() {
+        try (LineWriter writer = LineWriter.open(file, StandardCharsets.US_ASCII, LineWriter.Durability.NONE)) {
+            writer.write("\u0434");
+            fail();
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+}
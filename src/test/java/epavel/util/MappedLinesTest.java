@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class MappedLinesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String content) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testForEach() throws IOException {
+        Path file = write("first\nsecond\r\nthird\r\u043f\u043e\u0441\u043b\u0435\u0434\u043d\u044f\u044f");
+        List<String> lines = new ArrayList<>();
+
+        MappedLines.forEach(file, line -> lines.add(line.toString()));
+
+        assertEquals(Files.readAllLines(file), lines);
+        assertEquals(Arrays.asList("first", "second", "third", "\u043f\u043e\u0441\u043b\u0435\u0434\u043d\u044f\u044f"), lines);
+    }
+
+    @Test
+    public void testForEachEmptyLines() throws IOException {
+        Path file = write("\n\na\n");
+        List<String> lines = new ArrayList<>();
+
+        MappedLines.forEach(file, line -> lines.add(line.toString()));
+
+        assertEquals(Arrays.asList("", "", "a"), lines);
+    }
+
+    @Test
+    public void testLine() throws IOException {
+        Path file = write("skip\nERROR something\n");
+        List<Long> offsets = new ArrayList<>();
+        byte[] error = "ERROR".getBytes(StandardCharsets.US_ASCII);
+
+        MappedLines.forEach(file, line -> {
+            if (line.startsWith(error)) {
+                offsets.add(line.offset());
+                assertEquals(5, line.indexOf(" s".getBytes(StandardCharsets.US_ASCII)));
+                assertEquals('E', line.byteAt(0));
+                assertEquals(15, line.buffer().remaining());
+            }
+        });
+
+        assertEquals(Arrays.asList(5L), offsets);
+    }
+
+    @Test
+    public void testSmallRegions() throws IOException {
+        String content = "line one\r\nline two\nthree\r\r\nfour";
+        Path file = write(content);
+        List<String> lines = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedLines.scan(channel, 0, channel.size(), 9, line -> lines.add(line.toString()));
+        }
+
+        assertEquals(Files.readAllLines(file), lines);
+        assertTrue(lines.contains(""));
+    }
+
+    @Test
+    public void testParallelLines() throws IOException {
+        StringBuilder content = new StringBuilder();
+        String[] terminators = {"\n", "\r\n", "\r"};
+        for (int i = 0; i < 5000; i++)
+            content.append("line ").append(i).append(terminators[i % 3]);
+        Path file = write(content.toString());
+
+        List<String> lines;
+        try (Stream<String> stream = MappedLines.lines(file, StandardCharsets.UTF_8, 64)) {
+            lines = stream.parallel().collect(Collectors.toList());
+        }
+
+        assertEquals(Files.readAllLines(file), lines);
+    }
+
+    @Test
+    public void testParallelLinesUnordered() throws IOException {
+        Path file = write("a\nbb\r\nccc\rdddd");
+
+        long total;
+        try (Stream<String> stream = MappedLines.lines(file, StandardCharsets.UTF_8, 1)) {
+            total = stream.parallel().unordered().mapToInt(String::length).sum();
+        }
+
+        assertEquals(10, total);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class StackTraceRendererTest {
+
+    private static String printStackTrace(Throwable t) {
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    private static Exception nested(String message) {
+        IllegalStateException root = new IllegalStateException("root");
+        IOException middle = new IOException("middle", root);
+        middle.addSuppressed(new IllegalArgumentException("suppressed", new RuntimeException("inner")));
+        return new RuntimeException(message, middle);
+    }
+
+    @Test
+    public void testUnboundedLikePrintStackTrace() {
+        Exception e = nested("top");
+        assertEquals(printStackTrace(e), StackTraceRenderer.UNBOUNDED.render(e));
+        assertEquals(printStackTrace(e), StringFormatter.stackTrace(e));
+
+        RuntimeException a = new RuntimeException("a");
+        RuntimeException b = new RuntimeException("b", a);
+        a.initCause(b);
+        assertEquals(printStackTrace(a), StringFormatter.stackTrace(a));
+    }
+
+    @Test
+    public void testLimits() {
+        Exception e = nested("top");
+        String rendered = StringFormatter.stackTrace(e, 1, 1);
+        String[] lines = rendered.split(System.lineSeparator());
+        assertEquals(e.toString(), lines[0]);
+        assertEquals("\tat " + e.getStackTrace()[0], lines[1]);
+        assertEquals("\t... " + (e.getStackTrace().length - 1) + " frames omitted", lines[2]);
+        assertEquals("Caused by: " + e.getCause(), lines[3]);
+        assertEquals("\t... " + (e.getCause().getStackTrace().length - 1) + " more", lines[5]);
+        assertEquals("\tSuppressed: [2 more omitted]", lines[6]);
+        assertEquals("Caused by: [1 more omitted]", lines[7]);
+        assertEquals(8, lines.length);
+
+        String nl = System.lineSeparator();
+        assertEquals(e + nl + "\t... " + e.getStackTrace().length + " frames omitted" + nl
+                + "Caused by: [2 more omitted]" + nl, StringFormatter.stackTrace(e, 0, 0));
+    }
+
+    @Test
+    public void testAppendTo() {
+        Exception e = nested("top");
+        StringBuilder sb = new StringBuilder("> ");
+        assertSame(sb, StackTraceRenderer.UNBOUNDED.appendTo(sb, e));
+        assertEquals("> " + printStackTrace(e), sb.toString());
+    }
+
+    @Test
+    public void testKeepsSharedBuilder() {
+        Exception e = nested("top");
+        StringBuilder sb = StringFormatter.formatShared("error {}: ", 42);
+        String trace = StringFormatter.stackTrace(e);
+        new StackTraceRenderer(10, 3, 16).render(e);
+        assertEquals("error 42: ", sb.toString());
+        assertEquals(printStackTrace(e), trace);
+    }
+
+    @Test
+    public void testCache() {
+        StackTraceRenderer renderer = new StackTraceRenderer(10, 3, 16);
+        List<Exception> same = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+            same.add(nested("top"));
+        String first = renderer.render(same.get(0));
+        assertSame(first, renderer.render(same.get(1)));
+        assertEquals(new StackTraceRenderer(10, 3).render(same.get(1)), first);
+
+        String other = renderer.render(nested("other"));
+        assertNotEquals(first, other);
+        assertTrue(other.startsWith(new RuntimeException("other").toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimit() {
+        new StackTraceRenderer(-1, 0);
+    }
+}
@@ -26,8 +26,19 @@ package epavel.util;
 
 import org.junit.Test;
 
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static epavel.util.StringFormatter.$;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 
 public class StringFormatterTest {
@@ -43,4 +54,159 @@ public class StringFormatterTest {
         assertEquals("no params", $("no params"));
         assertEquals("no params", $("no params", "again", 1));
     }
+
+    @Test
+    public void testCompile() {
+        StringFormatter.Template t = StringFormatter.compile("a {} b {}{} c");
+        assertEquals("a 1 b 23 c", t.format(1, 2, 3));
+        assertEquals("a 1 b 23 c", t.format(1, 2, 3, 4));
+        assertEquals("a 1 b {}{} c", t.format(1));
+        assertEquals("a {} b {}{} c", t.format());
+        assertEquals("a null b nullnull c", t.format(null, null, null));
+        assertEquals("{", StringFormatter.compile("{").format(1));
+        assertEquals("{1}", StringFormatter.compile("{{}}").format(1));
+    }
+
+    @Test
+    public void testCached() {
+        String template = "cached {}";
+        // the first call may find the slot taken
+        StringFormatter.cached(template);
+        assertSame(StringFormatter.cached(template), StringFormatter.cached(template));
+        assertEquals("cached 1", $(template, 1));
+        assertEquals("cached 2", $(new String(template), 2));
+    }
+
+    @Test
+    public void testCacheMiss() {
+        String constant = "constant {}";
+        StringFormatter.Template cached = StringFormatter.cached(constant);
+        cached = StringFormatter.cached(constant);
+        assertSame(cached, StringFormatter.cached(constant));
+        for (int i = 0; i < 1000; i++) {
+            // a new instance every time, like templates built at runtime
+            assertNotSame(StringFormatter.cached(new String(constant)), StringFormatter.cached(new String(constant)));
+            assertEquals("constant " + i, $(new String(constant), i));
+        }
+        assertSame(cached, StringFormatter.cached(constant));
+    }
+
+    @Test
+    public void testAppendTo() {
+        StringBuilder sb = new StringBuilder("> ");
+        assertSame(sb, StringFormatter.appendTo(sb, "a {} b {}", 1, "x", 3));
+        assertEquals("> a 1 b x", sb.toString());
+
+        StringWriter writer = new StringWriter();
+        StringFormatter.appendTo(writer, "{} and {} and {}", null, new StringBuilder("sb"));
+        assertEquals("null and sb and {}", writer.toString());
+    }
+
+    @Test
+    public void testFormatShared() {
+        StringBuilder first = StringFormatter.formatShared("shared {}", 1);
+        assertEquals("shared 1", first.toString());
+        StringBuilder second = StringFormatter.formatShared("again {}", 2);
+        assertSame(first, second);
+        assertEquals("again 2", second.toString());
+    }
+
+    @Test
+    public void testEncodeTo() {
+        String text = "a\u00e9\u20ac\ud83d\ude00 {} \ud800";
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 'x');
+        int n = StringFormatter.encodeTo(buffer, text, "\u0436");
+        byte[] expected = $(text, "\u0436").getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, n);
+        assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 1, 1 + n));
+
+        ByteBuffer small = ByteBuffer.allocate(4);
+        small.put((byte) 'x');
+        try {
+            StringFormatter.encodeTo(small, "long {}", "text");
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(1, small.position());
+        }
+    }
+
+    @Test
+    public void testLazy() {
+        AtomicInteger renders = new AtomicInteger();
+        Object counted = new Object() {
+            @Override
+            public String toString() {
+                return "#" + renders.incrementAndGet();
+            }
+        };
+        LazyMessage message = StringFormatter.lazy("value {}", counted);
+        assertEquals(0, renders.get());
+        assertEquals("value #1", message.toString());
+        assertEquals("value #1", message.toString());
+        assertEquals("> value #1", message.appendTo(new StringBuilder("> ")).toString());
+        assertEquals(1, renders.get());
+
+        assertEquals("1 2 {}", StringFormatter.lazy("{} {} {}", 1, 2).toString());
+        assertEquals("1 2 3", StringFormatter.lazy("{} {} {}", 1, 2, 3).toString());
+        assertEquals("1 2 3", StringFormatter.lazy("{} {} {}", 1, 2, 3, 4).toString());
+        assertEquals("1 2 3 4 5", StringFormatter.lazy("{} {} {} {} {}", 1, 2, 3, 4, 5).toString());
+        assertEquals("no params", StringFormatter.lazy("no params").toString());
+    }
+
+    @Test
+    public void testLazyPrimitives() {
+        assertEquals("n=5;", StringFormatter.lazy("n={};", 5).toString());
+        assertEquals("n=-9223372036854775808;", StringFormatter.lazy("n={};", Long.MIN_VALUE).toString());
+        assertEquals("n=0.4;", StringFormatter.lazy("n={};", 0.4).toString());
+        assertEquals("n=0.1;", StringFormatter.lazy("n={};", 0.1f).toString());
+        assertEquals("n=c;", StringFormatter.lazy("n={};", 'c').toString());
+        assertEquals("none", StringFormatter.lazy("none", 5L).toString());
+        assertEquals("1 2 {}", StringFormatter.lazyLongs("{} {} {}", 1, 2).toString());
+        assertEquals("-0.0 NaN", StringFormatter.lazyDoubles("{} {}", -0.0, Double.NaN).toString());
+        assertEquals("x 1", StringFormatter.lazyLongs("x {}", 1, 2).appendTo(new StringBuilder()).toString());
+
+        Long id = null;
+        assertEquals("id=null", StringFormatter.lazy("id={}", id).toString());
+    }
+
+    @Test
+    public void testNumbers() {
+        assertEquals("n=5;", $("n={};", 5));
+        assertEquals("n=-9223372036854775808;", $("n={};", Long.MIN_VALUE));
+        assertEquals("n=3;", $("n={};", (short) 3));
+        assertEquals("n=0.4;", $("n={};", 0.4));
+        assertEquals("n=0.1;", $("n={};", 0.1f));
+        assertEquals("n=c;", $("n={};", 'c'));
+        assertEquals("n=NaN {}", $("n={} {}", Double.NaN));
+        assertEquals("none", $("none", 5));
+        assertEquals("none", $("none", 'c'));
+        assertEquals("5 6 7.5 8.5", $("{} {} {} {}", 5, 6L, 7.5, 8.5f));
+    }
+
+    @Test
+    public void testNamedPrimitives() {
+        assertEquals("n=5;", StringFormatter.formatLong("n={};", 5));
+        assertEquals("n=-9223372036854775808;", StringFormatter.formatLong("n={};", Long.MIN_VALUE));
+        assertEquals("1 2 {}", StringFormatter.formatLongs("{} {} {}", 1, 2));
+        assertEquals("n=0.4;", StringFormatter.formatDouble("n={};", 0.4));
+        assertEquals("n=NaN {}", StringFormatter.formatDouble("n={} {}", Double.NaN));
+        assertEquals("none", StringFormatter.formatLong("none", 5));
+        assertEquals("x 1", StringFormatter.compile("x {}").formatLongs(1, 2));
+    }
+
+    @Test
+    public void testNullBoxed() {
+        Long id = null;
+        Integer count = null;
+        Double ratio = null;
+        Character c = null;
+        assertEquals("id=null", $("id={}", id));
+        assertEquals("count=null", $("count={}", count));
+        assertEquals("ratio=null", $("ratio={}", ratio));
+        assertEquals("c=null", $("c={}", c));
+        assertEquals("id=null", StringFormatter.compile("id={}").format(id));
+        assertEquals("id=null", StringFormatter.appendTo(new StringBuilder(), "id={}", id).toString());
+        assertEquals("id=null", StringFormatter.formatShared("id={}", id).toString());
+    }
 }
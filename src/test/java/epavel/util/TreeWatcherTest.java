@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class TreeWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BlockingQueue<List<TreeWatcher.Change>> batches = new LinkedBlockingQueue<>();
+
+    @Test
+    public void testCreateModifyDelete() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path file = root.resolve("file");
+        try (TreeWatcher ignored = TreeWatcher.watch(root, 100, batches::add)) {
+            Files.write(file, "1".getBytes());
+            List<TreeWatcher.Change> changes = await(1);
+            assertEquals(1, changes.size());
+            assertEquals(TreeWatcher.Kind.CREATED, changes.get(0).kind);
+            assertEquals(file, changes.get(0).path);
+
+            Files.write(file, "12".getBytes());
+            assertTrue(await(1).contains(change(TreeWatcher.Kind.MODIFIED, file)));
+
+            // content changed, modification time restored
+            FileTime modified = Files.getLastModifiedTime(file);
+            Files.write(file, "34".getBytes());
+            Files.setLastModifiedTime(file, modified);
+            assertTrue(await(1).contains(change(TreeWatcher.Kind.MODIFIED, file)));
+
+            Files.delete(file);
+            assertTrue(await(1).contains(change(TreeWatcher.Kind.DELETED, file)));
+        }
+    }
+
+    @Test
+    public void testNewSubdirectories() throws Exception {
+        Path root = folder.getRoot().toPath();
+        try (TreeWatcher ignored = TreeWatcher.watch(root, 100, batches::add)) {
+            Path dir = Files.createDirectories(root.resolve("a/b"));
+            Files.write(dir.resolve("inner"), "1".getBytes());
+            List<TreeWatcher.Change> changes = await(3);
+            assertTrue(changes.contains(change(TreeWatcher.Kind.CREATED, root.resolve("a"))));
+            assertTrue(changes.contains(change(TreeWatcher.Kind.CREATED, dir)));
+            assertTrue(changes.contains(change(TreeWatcher.Kind.CREATED, dir.resolve("inner"))));
+
+            // the new subdirectory is watched
+            Files.write(dir.resolve("later"), "1".getBytes());
+            assertTrue(await(1).contains(change(TreeWatcher.Kind.CREATED, dir.resolve("later"))));
+
+            FileUtils.deleteDirectories(root.resolve("a"));
+            changes = await(4);
+            assertTrue(changes.contains(change(TreeWatcher.Kind.DELETED, root.resolve("a"))));
+            assertTrue(changes.contains(change(TreeWatcher.Kind.DELETED, dir.resolve("later"))));
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        Path root = folder.getRoot().toPath();
+        try (TreeWatcher ignored = TreeWatcher.watch(root, 500, batches::add)) {
+            Files.write(root.resolve("temp"), "1".getBytes());
+            Files.delete(root.resolve("temp"));
+            Files.write(root.resolve("kept"), "1".getBytes());
+            Files.write(root.resolve("kept"), "12".getBytes());
+            List<TreeWatcher.Change> changes = await(1);
+            assertEquals(1, changes.size());
+            assertEquals(change(TreeWatcher.Kind.CREATED, root.resolve("kept")), changes.get(0));
+            assertFalse(changes.contains(change(TreeWatcher.Kind.CREATED, root.resolve("temp"))));
+        }
+    }
+
+    private static TreeWatcher.Change change(TreeWatcher.Kind kind, Path path) {
+        return new TreeWatcher.Change(kind, path);
+    }
+
+    /** Collects batches until at least {@code count} changes arrived. */
+    private List<TreeWatcher.Change> await(int count) throws InterruptedException {
+        List<TreeWatcher.Change> changes = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (changes.size() < count) {
+            List<TreeWatcher.Change> batch = batches.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (batch == null)
+                break;
+            changes.addAll(batch);
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Pavel Erofeev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package epavel.util;
+
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * @author Pavel Erofeev
+ */
+public class UncheckedFilesTest {
+
+    private FileSystem fs = Jimfs.newFileSystem();
+
+    private Path root = fs.getPath("/root");
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(root.resolve("a/b/c"));
+        Files.createDirectories(root.resolve("d"));
+        Files.write(root.resolve("a/file"), "12345".getBytes());
+        Files.write(root.resolve("a/b/c/deep"), "1".getBytes());
+    }
+
+    @Test
+    public void testWalkWithAttributes() throws IOException {
+        List<T2<Path, BasicFileAttributes>> entries;
+        try (Stream<T2<Path, BasicFileAttributes>> stream = UncheckedFiles.walkWithAttributes(root)) {
+            entries = stream.collect(Collectors.toList());
+        }
+
+        try (Stream<Path> expected = Files.walk(root)) {
+            assertEquals(expected.collect(Collectors.toList()),
+                    entries.stream().map(t -> t.a).collect(Collectors.toList()));
+        }
+        for (T2<Path, BasicFileAttributes> entry : entries) {
+            assertEquals(Files.isDirectory(entry.a), entry.b.isDirectory());
+            assertEquals(Files.size(entry.a), entry.b.size());
+        }
+    }
+
+    @Test
+    public void testWalkWithAttributesMaxDepth() throws IOException {
+        List<Path> paths;
+        try (Stream<T2<Path, BasicFileAttributes>> stream = UncheckedFiles.walkWithAttributes(root, 2)) {
+            paths = stream.map(t -> t.a).collect(Collectors.toList());
+        }
+
+        try (Stream<Path> expected = Files.walk(root, 2)) {
+            assertEquals(expected.collect(Collectors.toList()), paths);
+        }
+        assertTrue(paths.contains(root.resolve("a/b")));
+        assertFalse(paths.contains(root.resolve("a/b/c")));
+    }
+}